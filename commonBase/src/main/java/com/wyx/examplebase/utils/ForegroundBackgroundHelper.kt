@@ -17,6 +17,11 @@ object ForegroundBackgroundHelper : ForegroundBackgroundSubject {
 
     private val mObservers = mutableListOf<ForegroundBackgroundObserver>()
 
+    /**
+     * 当前是否在前台
+     */
+    fun isForeground(): Boolean = mIsForeground
+
     fun onActivityStarted() {
         mActivityStartCount++
         if (mActivityStartCount == 1) {
@@ -54,7 +54,9 @@ dependencies {
     val room_version = "2.7.0"
     api("androidx.room:room-runtime:$room_version")
     ksp("androidx.room:room-compiler:$room_version")
+    kspAndroidTest("androidx.room:room-compiler:$room_version")
     api("androidx.room:room-ktx:$room_version")
+    api("androidx.room:room-paging:$room_version")
 
     api("androidx.core:core-ktx:1.17.0")
     api("org.jetbrains.kotlinx:kotlinx-coroutines-android:1.6.4")
@@ -0,0 +1,164 @@
+package com.wyx.commondatabase
+
+import android.util.Log
+import androidx.room.Room
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * BaseDao 各查询方式在真机上的耗时对比，耗时只输出到 Logcat，断言只检查结果是否正确
+ */
+@RunWith(AndroidJUnit4::class)
+class BaseDaoBenchmark {
+
+    private lateinit var db: BenchDatabase
+    private lateinit var dao: BenchItemDao
+
+    // 对 bench_item 发出的 select 语句数，回调在执行查询的线程上同步调用
+    private val selects = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, BenchDatabase::class.java)
+            .setQueryCallback({ sql, _ -> if (sql.startsWith("SELECT * FROM bench_item")) selects.incrementAndGet() }) { it.run() }
+            .build()
+        dao = db.itemDao()
+        dao.insert((0 until ROWS).map { BenchItem(name = "name$it", score = it % 100) })
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun repeatedQuery_boundArgsVsInlineValues() {
+        repeat(3) {
+            measure { dao.rawQuery(SimpleSQLiteQuery("SELECT * FROM bench_item WHERE name = 'name$it' LIMIT 10")) }
+            measure { dao.query { eq("name", "name$it"); limit(10) } }
+        }
+        val inlineNs = measure {
+            dao.rawQuery(SimpleSQLiteQuery("SELECT * FROM bench_item WHERE name = 'name$it' LIMIT 10"))
+        }
+        val boundNs = measure { dao.query { eq("name", "name$it"); limit(10) } }
+
+        Log.i(TAG, "repeated query: inline ${"%.1f".format(inlineNs / 1000)} us/op, bound ${"%.1f".format(boundNs / 1000)} us/op")
+        assertEquals(1, dao.query { eq("name", "name42") }.size)
+    }
+
+    @Test
+    fun deepPage_keysetVsOffset() {
+        val depth = ROWS - 100
+        val anchor = dao.query { orderBy("name"); orderBy("id"); limit(1, depth - 1) }.single()
+
+        val offsetNs = measure(PAGE_ITERATIONS) { dao.query { orderBy("name"); orderBy("id"); limit(20, depth) } }
+        val keysetNs = measure(PAGE_ITERATIONS) {
+            dao.pageAfter("name", anchor.name, anchor.id, 20) { KeysetCursor(it.name, it.id) }
+        }
+        val firstPageNs = measure(PAGE_ITERATIONS) {
+            dao.pageAfter("name", null, 0, 20) { KeysetCursor(it.name, it.id) }
+        }
+
+        Log.i(TAG, "page at $depth: offset ${"%.1f".format(offsetNs / 1000)} us/op, " +
+                "keyset ${"%.1f".format(keysetNs / 1000)} us/op, first page ${"%.1f".format(firstPageNs / 1000)} us/op")
+        assertEquals(
+            dao.query { orderBy("name"); orderBy("id"); limit(20, depth) },
+            dao.pageAfter("name", anchor.name, anchor.id, 20) { KeysetCursor(it.name, it.id) }.rows
+        )
+    }
+
+    @Test
+    fun findAllChunked_heapStaysBoundedByChunkSize() {
+        val baseline = retainedHeap()
+        var peak = 0L
+        var rows = 0
+        dao.findAllChunked(CHUNK_SIZE) { it.id }.forEach { chunk ->
+            rows += chunk.size
+            // 回收已处理的块后，存活的只有当前块
+            peak = maxOf(peak, retainedHeap() - baseline)
+        }
+        val all = dao.findAll()!!
+        val materialized = retainedHeap() - baseline
+
+        Log.i(TAG, "findAllChunked: $rows rows, peak ${peak / 1024} KB, findAll ${materialized / 1024} KB")
+        assertEquals(all.size, rows)
+        // 块大小为总行数的 1/50，留出余量后峰值仍应远小于整表
+        assertTrue(peak < materialized / 10)
+    }
+
+    @Test
+    fun findAllFlow_stopsQueryingAfterCancellation() = runBlocking {
+        selects.set(0)
+        val first = dao.findAllFlow(100) { it.id }.take(150).toList()
+
+        assertEquals((1L..150L).toList(), first.map { it.id })
+        // 第二块读到一半时取消，不再查询第三块
+        assertEquals(2, selects.get())
+    }
+
+    private fun retainedHeap(): Long {
+        val runtime = Runtime.getRuntime()
+        runtime.gc()
+        runtime.runFinalization()
+        runtime.gc()
+        return runtime.totalMemory() - runtime.freeMemory()
+    }
+
+    @Test
+    fun bulkUpsert_vsLoopingInserts() {
+        val items = (0 until BULK_ROWS).map { BenchItem(id = ROWS + 1L + it, name = "bulk$it", score = it % 100) }
+
+        val loopStart = System.nanoTime()
+        items.forEach { dao.insert(it) }
+        val loopNs = System.nanoTime() - loopStart
+        val ids = items.map { it.id }
+        val deleteLoopStart = System.nanoTime()
+        ids.forEach { id -> dao.deleteWhere { eq("id", id) } }
+        val deleteLoopNs = System.nanoTime() - deleteLoopStart
+
+        var reported = 0
+        val bulkStart = System.nanoTime()
+        dao.bulkUpsert(items, 500) { done, _ -> reported = done }
+        val bulkNs = System.nanoTime() - bulkStart
+        val deleteBulkStart = System.nanoTime()
+        val deleted = dao.deleteByIds(ids)
+        val deleteBulkNs = System.nanoTime() - deleteBulkStart
+
+        Log.i(TAG, "upsert $BULK_ROWS rows: loop ${rowsPerSecond(loopNs)} rows/s, bulk ${rowsPerSecond(bulkNs)} rows/s; " +
+                "delete: loop ${rowsPerSecond(deleteLoopNs)} rows/s, bulk ${rowsPerSecond(deleteBulkNs)} rows/s")
+        assertEquals(BULK_ROWS, reported)
+        assertEquals(BULK_ROWS, deleted)
+        assertEquals(ROWS.toLong(), dao.count())
+    }
+
+    private fun rowsPerSecond(nanos: Long) = BULK_ROWS * 1_000_000_000L / nanos
+
+    private inline fun measure(iterations: Int = ITERATIONS, block: (Int) -> Unit): Double {
+        val start = System.nanoTime()
+        for (i in 0 until iterations) {
+            block(i)
+        }
+        return (System.nanoTime() - start).toDouble() / iterations
+    }
+
+    companion object {
+        private const val TAG = "BaseDaoBenchmark"
+        private const val ROWS = 10_000
+        private const val ITERATIONS = 2_000
+        private const val PAGE_ITERATIONS = 200
+        private const val BULK_ROWS = 5_000
+        private const val CHUNK_SIZE = ROWS / 50
+    }
+}
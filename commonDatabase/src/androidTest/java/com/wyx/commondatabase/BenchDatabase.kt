@@ -0,0 +1,36 @@
+package com.wyx.commondatabase
+
+import androidx.room.Dao
+import androidx.room.Database
+import androidx.room.Entity
+import androidx.room.Index
+import androidx.room.PrimaryKey
+import androidx.room.RawQuery
+import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteQuery
+
+@Entity(tableName = "bench_item", indices = [Index("name")])
+data class BenchItem(
+    @PrimaryKey(autoGenerate = true)
+    val id: Long = 0,
+    val name: String,
+    val score: Int
+)
+
+@Dao
+abstract class BenchItemDao : BaseDao<BenchItem>() {
+
+    override val tableName: String
+        get() = "bench_item"
+
+    /**
+     * 对照组：直接执行拼接好的 SQL
+     */
+    @RawQuery
+    abstract fun rawQuery(query: SupportSQLiteQuery): List<BenchItem>
+}
+
+@Database(entities = [BenchItem::class], version = 1, exportSchema = false)
+abstract class BenchDatabase : RoomDatabase() {
+    abstract fun itemDao(): BenchItemDao
+}
@@ -0,0 +1,69 @@
+package com.wyx.commondatabase
+
+import androidx.paging.PagingSource
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class KeysetPagingSourceTest {
+
+    private lateinit var db: BenchDatabase
+    private lateinit var dao: BenchItemDao
+
+    @Before
+    fun setUp() {
+        val context = InstrumentationRegistry.getInstrumentation().targetContext
+        db = Room.inMemoryDatabaseBuilder(context, BenchDatabase::class.java).build()
+        dao = db.itemDao()
+        dao.insert((0 until 25).map { BenchItem(name = "name%02d".format(it), score = it) })
+    }
+
+    @After
+    fun tearDown() {
+        db.close()
+    }
+
+    @Test
+    fun appendAndPrepend_followKeysetOrder() = runBlocking {
+        val source = dao.pagingSourceFactory(db, "name") { KeysetCursor(it.name, it.id) }()
+
+        val first = source.load(PagingSource.LoadParams.Refresh(null, 10, true)) as PagingSource.LoadResult.Page
+        assertEquals((0 until 10).map { "name%02d".format(it) }, first.data.map { it.name })
+        assertEquals(0, first.itemsBefore)
+        assertEquals(15, first.itemsAfter)
+
+        val second = source.load(PagingSource.LoadParams.Append(first.nextKey!!, 10, true)) as PagingSource.LoadResult.Page
+        assertEquals((10 until 20).map { "name%02d".format(it) }, second.data.map { it.name })
+
+        val before = source.load(PagingSource.LoadParams.Prepend(second.prevKey!!, 5, true)) as PagingSource.LoadResult.Page
+        assertEquals((5 until 10).map { "name%02d".format(it) }, before.data.map { it.name })
+
+        val last = source.load(PagingSource.LoadParams.Append(second.nextKey!!, 10, true)) as PagingSource.LoadResult.Page
+        assertEquals(5, last.data.size)
+        assertNull(last.nextKey)
+    }
+
+    @Test
+    fun tableChange_invalidatesSource() = runBlocking {
+        val source = dao.pagingSourceFactory(db) { KeysetCursor(it.id, it.id) }()
+        source.load(PagingSource.LoadParams.Refresh(null, 10, false))
+
+        dao.insert(BenchItem(name = "new", score = 0))
+        // 写事务结束后 InvalidationTracker 异步通知
+        val deadline = System.currentTimeMillis() + 2000
+        while (!source.invalid && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10)
+        }
+
+        assertTrue(source.invalid)
+    }
+}
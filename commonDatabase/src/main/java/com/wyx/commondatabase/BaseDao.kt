@@ -1,14 +1,18 @@
 package com.wyx.commondatabase
 
-import android.util.Log
 import androidx.room.Delete
 import androidx.room.Insert
 import androidx.room.OnConflictStrategy
 import androidx.room.RawQuery
+import androidx.room.Transaction
 import androidx.room.Update
+import androidx.room.Upsert
 import androidx.sqlite.db.SimpleSQLiteQuery
 import androidx.sqlite.db.SupportSQLiteQuery
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.flow.flowOn
 import java.lang.reflect.ParameterizedType
 
 abstract class BaseDao<T> {
@@ -31,6 +35,42 @@ abstract class BaseDao<T> {
     @Insert(onConflict = OnConflictStrategy.REPLACE)
     abstract fun insert(personList: List<T>): List<Long>
 
+    /**
+     * 按主键插入或更新，已存在的行只更新不删除
+     */
+    @Upsert
+    abstract fun upsert(items: List<T>)
+
+    /**
+     * 在一个事务中分块插入或更新 [items]，每写完一块回调一次 [onProgress]（已写入条数，总条数）
+     */
+    @Transaction
+    open fun bulkUpsert(items: List<T>, chunkSize: Int = DaoQuery.DEFAULT_CHUNK_SIZE,
+                        onProgress: (done: Int, total: Int) -> Unit = { _, _ -> }) {
+        var done = 0
+        items.chunked(chunkSize).forEach { chunk ->
+            upsert(chunk)
+            done += chunk.size
+            onProgress(done, items.size)
+        }
+    }
+
+    /**
+     * 在一个事务中按主键批量删除，每条语句的参数个数不超过 SQLite 的变量上限（旧版本为 999），
+     * 每删完一块回调一次 [onProgress]（已处理条数，总条数），返回删除的行数
+     */
+    @Transaction
+    open fun deleteByIds(ids: Collection<Long>, onProgress: (done: Int, total: Int) -> Unit = { _, _ -> }): Int {
+        var deleted = 0
+        var done = 0
+        ids.chunked(DaoQuery.MAX_BIND_VARIABLES).forEach { chunk ->
+            deleted += deleteWhere { inList(DaoQuery.ID_COLUMN, chunk) }
+            done += chunk.size
+            onProgress(done, ids.size)
+        }
+        return deleted
+    }
+
     /**
      * 根据对象中的主键删除（主键是自动增长的，无需手动赋值）
      */
@@ -50,6 +90,9 @@ abstract class BaseDao<T> {
         return doDeleteAll(query)
     }
 
+    /**
+     * 一次性读出整张表，数据量大时使用 [findAllChunked] 或 [findAllFlow]
+     */
     fun findAll(): List<T>? {
         val query = SimpleSQLiteQuery(
             "select * from $tableName"
@@ -57,6 +100,29 @@ abstract class BaseDao<T> {
         return doFindAll(query)
     }
 
+    /**
+     * 按主键顺序分块读取整张表，每块最多 [chunkSize] 行，迭代到下一块时才查询；
+     * 每块都是一次独立的键集查询，游标在块内读完即关闭，内存占用只与 [chunkSize] 有关。[idOf] 取出一行的主键
+     */
+    fun findAllChunked(chunkSize: Int = DaoQuery.DEFAULT_CHUNK_SIZE, idOf: (T) -> Long): Sequence<List<T>> = sequence {
+        val cursorOf = { item: T -> idOf(item).let { KeysetCursor(it, it) } }
+        var page = pageAfter(DaoQuery.ID_COLUMN, null, 0, chunkSize, cursorOf = cursorOf)
+        while (true) {
+            if (page.rows.isNotEmpty()) yield(page.rows)
+            val next = page.next ?: break
+            page = pageAfter(DaoQuery.ID_COLUMN, next.value, next.id, chunkSize, cursorOf = cursorOf)
+        }
+    }
+
+    /**
+     * [findAllChunked] 的 Flow 形式，在 IO 线程上查询；收集方取消后不再查询下一块
+     */
+    fun findAllFlow(chunkSize: Int = DaoQuery.DEFAULT_CHUNK_SIZE, idOf: (T) -> Long): Flow<T> = flow {
+        for (chunk in findAllChunked(chunkSize, idOf)) {
+            chunk.forEach { emit(it) }
+        }
+    }.flowOn(Dispatchers.IO)
+
     fun find(id: Long): T? {
         val query = SimpleSQLiteQuery(
             "select * from $tableName where id = ?", arrayOf<Any>(id)
@@ -69,34 +135,103 @@ abstract class BaseDao<T> {
      * [value] 列的值
      */
     fun deleteByParams(params: String, value: String): Int {
-        val query = SimpleSQLiteQuery("delete from $tableName where $params='${value}'")
-        Log.d("BaseDao", "deleteByParams: ${"delete from $tableName where $params='${value}'"}")
-        return doDeleteByParams(query)
+        return deleteWhere { eq(params, value) }
     }
 
     /**
      * 分页查询，支持传入多个字段，但必须要按照顺序传入
-     * key = value，key = value 的形式，一一对应（可以使用 stringbuilder 去构造一下，这里就不演示了）
+     * key, value, key, value 的形式，一一对应
      */
     fun doQueryByArgLimit(vararg string: String, limit: Int = 10, offset: Int = 0): List<T>? {
-        val query =
-            SimpleSQLiteQuery("SELECT * FROM $tableName WHERE ${string[0]} = '${string[1]}' limit $limit offset $offset")
-        return doQueryByLimit(query)
+        require(string.size >= 2 && string.size % 2 == 0) { "arguments must be key/value pairs" }
+        return query {
+            for (i in string.indices step 2) {
+                eq(string[i], string[i + 1])
+            }
+            limit(limit, offset)
+        }
     }
 
     fun doQueryByLimit(limit: Int = 10, offset: Int = 0): List<T>? {
-        val query =
-            SimpleSQLiteQuery("SELECT * FROM $tableName limit $limit offset $offset")
-        return doQueryByLimit(query)
+        return query { limit(limit, offset) }
     }
 
     /**
      * 降序分页查询
      */
     fun doQueryByOrder(vararg string: String, limit: Int = 10, offset: Int = 10): List<T>? {
-        val query =
-            SimpleSQLiteQuery("SELECT * FROM $tableName ORDER BY ${string[0]} desc limit '${limit}' offset '${offset}'")
-        return doQueryByLimit(query)
+        return query {
+            orderBy(string[0], descending = true)
+            limit(limit, offset)
+        }
+    }
+
+    /**
+     * 键集（seek）分页：返回按 ([orderColumn], id) 排序时位于 ([lastValue], [lastId]) 之后的 [limit] 行，
+     * [lastValue] 为 null 时从第一页开始；耗时只取决于 [limit]，不随翻页深度增加。
+     * [cursorOf] 从一行中取出排序列的值和主键作为下一页的游标，[orderColumn] 为 id 时只按主键分页。
+     * 排序列需要有索引，值为 null 的行不会被返回
+     *
+     * ```
+     * var page = dao.pageAfter("name", null, 0, 50) { KeysetCursor(it.name, it.id) }
+     * while (page.next != null) {
+     *     page = dao.pageAfter("name", page.next!!.value, page.next!!.id, 50) { KeysetCursor(it.name, it.id) }
+     * }
+     * ```
+     */
+    fun pageAfter(orderColumn: String, lastValue: Any?, lastId: Long, limit: Int = 20,
+                  descending: Boolean = false, cursorOf: (T) -> KeysetCursor): KeysetPage<T> {
+        val rows = query {
+            keysetAfter(orderColumn, lastValue, lastId, descending)
+            if (orderColumn != DaoQuery.ID_COLUMN) orderBy(orderColumn, descending)
+            orderBy(DaoQuery.ID_COLUMN, descending)
+            limit(limit)
+        }
+        val next = if (rows.size < limit) null else cursorOf(rows.last())
+        return KeysetPage(rows, next)
+    }
+
+    /**
+     * 满足 [pageAfter] 条件的总行数，不限制条数
+     */
+    fun countAfter(orderColumn: String, lastValue: Any?, lastId: Long, descending: Boolean = false): Long {
+        return count { keysetAfter(orderColumn, lastValue, lastId, descending) }
+    }
+
+    private fun DaoQuery.keysetAfter(orderColumn: String, lastValue: Any?, lastId: Long, descending: Boolean) {
+        if (orderColumn == DaoQuery.ID_COLUMN) {
+            if (lastValue != null) {
+                if (descending) lt(DaoQuery.ID_COLUMN, lastId) else gt(DaoQuery.ID_COLUMN, lastId)
+            }
+        } else {
+            if (lastValue != null) after(orderColumn, lastValue, lastId, descending)
+            notNull(orderColumn)
+        }
+    }
+
+    /**
+     * 按 [DaoQuery] 构造的条件查询，条件值以参数绑定
+     *
+     * ```
+     * dao.query { eq("name", name); gt("age", 18); orderBy("id", descending = true); limit(20) }
+     * ```
+     */
+    fun query(block: DaoQuery.() -> Unit): List<T> {
+        return doQueryByLimit(DaoQuery(tableName).apply(block).toSelect()) ?: emptyList()
+    }
+
+    /**
+     * 按 [DaoQuery] 构造的条件计数，只支持条件，不支持 orderBy / limit
+     */
+    fun count(block: DaoQuery.() -> Unit = {}): Long {
+        return doCount(DaoQuery(tableName).apply(block).toCount())
+    }
+
+    /**
+     * 按 [DaoQuery] 构造的条件删除，只支持条件，不支持 orderBy / limit
+     */
+    fun deleteWhere(block: DaoQuery.() -> Unit): Int {
+        return doDeleteByParams(DaoQuery(tableName).apply(block).toDelete())
     }
 
     /**
@@ -122,4 +257,7 @@ abstract class BaseDao<T> {
     @RawQuery
     protected abstract fun doQueryByOrder(query: SupportSQLiteQuery): List<T>?
 
+    @RawQuery
+    protected abstract fun doCount(query: SupportSQLiteQuery): Long
+
 }
\ No newline at end of file
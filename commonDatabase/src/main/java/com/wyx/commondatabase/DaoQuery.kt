@@ -0,0 +1,186 @@
+package com.wyx.commondatabase
+
+import androidx.sqlite.db.SimpleSQLiteQuery
+import androidx.sqlite.db.SupportSQLiteQuery
+
+/**
+ * [BaseDao] 的条件查询构造器
+ *
+ * 条件值、limit、offset 都以 ? 占位符绑定，结构相同的查询生成完全相同的 SQL 文本，可以复用 SQLite 已编译的语句；
+ * 生成的 SQL 按查询结构缓存，重复查询不再拼接字符串。列名无法绑定，只接受合法的标识符
+ */
+class DaoQuery internal constructor(private val tableName: String) {
+
+    private val conditions = ArrayList<Condition>()
+    private val orders = ArrayList<Order>()
+    private val args = ArrayList<Any?>()
+    private var limit: Int? = null
+    private var offset: Int? = null
+
+    fun eq(column: String, value: Any) = where(column, Operator.EQ, value)
+
+    fun notEq(column: String, value: Any) = where(column, Operator.NOT_EQ, value)
+
+    fun lt(column: String, value: Any) = where(column, Operator.LT, value)
+
+    fun le(column: String, value: Any) = where(column, Operator.LE, value)
+
+    fun gt(column: String, value: Any) = where(column, Operator.GT, value)
+
+    fun ge(column: String, value: Any) = where(column, Operator.GE, value)
+
+    fun like(column: String, pattern: String) = where(column, Operator.LIKE, pattern)
+
+    /**
+     * 键集分页条件：按 ([column], id) 排序时位于 ([value], [id]) 之后的行，[descending] 为 true 时为之前；
+     * 写成 column >= ? AND (column > ? OR id > ?)，可以直接按 column 上的索引定位，不依赖 SQLite 3.15 的行值比较
+     */
+    fun after(column: String, value: Any, id: Long, descending: Boolean = false) = apply {
+        val operator = if (descending) Operator.KEYSET_BEFORE else Operator.KEYSET_AFTER
+        conditions.add(Condition(checkColumn(column), operator, 3))
+        args.add(value)
+        args.add(value)
+        args.add(id)
+    }
+
+    fun isNull(column: String) = apply { conditions.add(Condition(checkColumn(column), Operator.IS_NULL, 0)) }
+
+    fun notNull(column: String) = apply { conditions.add(Condition(checkColumn(column), Operator.NOT_NULL, 0)) }
+
+    /**
+     * [column] in (...)，占位符个数属于查询结构。个数向上取到 2 的幂，多出的占位符绑定 NULL（NULL 不等于任何值，
+     * 不会多匹配行），个数相近的查询共用同一条 SQL，不会因为每个个数一条缓存而挤掉其他查询
+     */
+    fun inList(column: String, values: Collection<Any>) = apply {
+        require(values.isNotEmpty()) { "values must not be empty" }
+        val argCount = inBucket(values.size)
+        conditions.add(Condition(checkColumn(column), Operator.IN, argCount))
+        args.addAll(values)
+        repeat(argCount - values.size) { args.add(null) }
+    }
+
+    fun orderBy(column: String, descending: Boolean = false) = apply {
+        orders.add(Order(checkColumn(column), descending))
+    }
+
+    fun limit(limit: Int, offset: Int = 0) = apply {
+        require(limit >= 0 && offset >= 0) { "limit=$limit, offset=$offset" }
+        this.limit = limit
+        this.offset = offset.takeIf { it > 0 }
+    }
+
+    private fun where(column: String, operator: Operator, value: Any) = apply {
+        conditions.add(Condition(checkColumn(column), operator, 1))
+        args.add(value)
+    }
+
+    internal fun toSelect(): SupportSQLiteQuery = SimpleSQLiteQuery(sql(Action.SELECT), bindArgs())
+
+    /**
+     * SQLite 默认不支持 delete 带 order by / limit，只使用条件部分
+     */
+    internal fun toDelete(): SupportSQLiteQuery {
+        check(orders.isEmpty() && limit == null) { "delete does not support orderBy/limit" }
+        return SimpleSQLiteQuery(sql(Action.DELETE), args.toTypedArray())
+    }
+
+    internal fun toCount(): SupportSQLiteQuery {
+        check(orders.isEmpty() && limit == null) { "count does not support orderBy/limit" }
+        return SimpleSQLiteQuery(sql(Action.COUNT), args.toTypedArray())
+    }
+
+    internal fun sql(action: Action): String {
+        val shape = Shape(tableName, action, conditions.toList(), orders.toList(), limit != null, offset != null)
+        return synchronized(sqlCache) { sqlCache.getOrPut(shape) { shape.toSql() } }
+    }
+
+    internal fun bindArgs(): Array<Any?> {
+        val result = ArrayList<Any?>(args.size + 2)
+        result.addAll(args)
+        limit?.let { result.add(it) }
+        offset?.let { result.add(it) }
+        return result.toTypedArray()
+    }
+
+    internal enum class Action(val sql: String) {
+        SELECT("SELECT * FROM "), DELETE("DELETE FROM "), COUNT("SELECT COUNT(*) FROM ")
+    }
+
+    private enum class Operator(val sql: String) {
+        EQ(" = ?"), NOT_EQ(" <> ?"), LT(" < ?"), LE(" <= ?"), GT(" > ?"), GE(" >= ?"), LIKE(" LIKE ?"),
+        IS_NULL(" IS NULL"), NOT_NULL(" IS NOT NULL"), IN(" IN "),
+        KEYSET_AFTER(" >= ? AND (%1\$s > ? OR $ID_COLUMN > ?))"),
+        KEYSET_BEFORE(" <= ? AND (%1\$s < ? OR $ID_COLUMN < ?))")
+    }
+
+    private data class Condition(val column: String, val operator: Operator, val argCount: Int)
+
+    private data class Order(val column: String, val descending: Boolean)
+
+    /**
+     * 查询结构，不包含参数值
+     */
+    private data class Shape(
+        val tableName: String,
+        val action: Action,
+        val conditions: List<Condition>,
+        val orders: List<Order>,
+        val hasLimit: Boolean,
+        val hasOffset: Boolean
+    ) {
+        fun toSql(): String = buildString {
+            append(action.sql).append(tableName)
+            conditions.forEachIndexed { i, condition ->
+                append(if (i == 0) " WHERE " else " AND ")
+                when (condition.operator) {
+                    Operator.IN -> {
+                        append(condition.column).append(condition.operator.sql)
+                        (0 until condition.argCount).joinTo(this, ",", "(", ")") { "?" }
+                    }
+                    Operator.KEYSET_AFTER, Operator.KEYSET_BEFORE ->
+                        append('(').append(condition.column).append(condition.operator.sql.format(condition.column))
+                    else -> append(condition.column).append(condition.operator.sql)
+                }
+            }
+            orders.forEachIndexed { i, order ->
+                append(if (i == 0) " ORDER BY " else ", ").append(order.column)
+                if (order.descending) append(" DESC")
+            }
+            if (hasLimit) append(" LIMIT ?")
+            if (hasOffset) append(" OFFSET ?")
+        }
+    }
+
+    companion object {
+        // BaseDao 约定的主键列
+        internal const val ID_COLUMN = "id"
+
+        // 分块读取、批量写入时每块的默认行数
+        internal const val DEFAULT_CHUNK_SIZE = 500
+
+        // SQLite 3.32 之前 SQLITE_MAX_VARIABLE_NUMBER 默认为 999
+        internal const val MAX_BIND_VARIABLES = 999
+        private const val MAX_CACHED_SHAPES = 128
+
+        // 超过这个个数的 IN 不再补齐，避免补齐后超出绑定变量上限
+        private const val MAX_IN_BUCKET = 512
+        private val IDENTIFIER = Regex("[A-Za-z_][A-Za-z0-9_]*")
+
+        private val sqlCache = object : LinkedHashMap<Shape, String>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Shape, String>?) =
+                size > MAX_CACHED_SHAPES
+        }
+
+        private fun inBucket(size: Int): Int {
+            if (size > MAX_IN_BUCKET) return size
+            var bucket = 1
+            while (bucket < size) bucket = bucket shl 1
+            return bucket
+        }
+
+        internal fun checkColumn(column: String): String {
+            require(IDENTIFIER.matches(column)) { "illegal column name: $column" }
+            return column
+        }
+    }
+}
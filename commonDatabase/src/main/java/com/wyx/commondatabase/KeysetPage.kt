@@ -0,0 +1,11 @@
+package com.wyx.commondatabase
+
+/**
+ * 键集分页的续页游标，[value] 为上一页最后一行排序列的值，[id] 为该行主键
+ */
+data class KeysetCursor(val value: Any, val id: Long)
+
+/**
+ * 键集分页的一页数据，[next] 为 null 表示已经没有更多数据
+ */
+class KeysetPage<T>(val rows: List<T>, val next: KeysetCursor?)
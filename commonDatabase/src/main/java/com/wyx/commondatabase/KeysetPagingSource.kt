@@ -0,0 +1,104 @@
+package com.wyx.commondatabase
+
+import androidx.paging.PagingSource
+import androidx.paging.PagingState
+import androidx.room.InvalidationTracker
+import androidx.room.RoomDatabase
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * 任意 [BaseDao] 的分页数据源工厂，按 ([orderColumn], id) 键集分页，表数据变化时通过 InvalidationTracker 使数据源失效
+ *
+ * ```
+ * val pager = Pager(PagingConfig(pageSize = 50), pagingSourceFactory = dao.pagingSourceFactory(db, "name") {
+ *     KeysetCursor(it.name, it.id)
+ * })
+ * pager.flow.collect { adapter.submitData(it) }
+ * ```
+ */
+fun <T : Any> BaseDao<T>.pagingSourceFactory(db: RoomDatabase, orderColumn: String = DaoQuery.ID_COLUMN,
+                                             descending: Boolean = false,
+                                             cursorOf: (T) -> KeysetCursor): () -> PagingSource<KeysetCursor, T> {
+    return { KeysetPagingSource(this, db, orderColumn, descending, cursorOf) }
+}
+
+/**
+ * 基于 [BaseDao.pageAfter] 的 PagingSource
+ *
+ * key 为相邻一行的游标：向后加载时是上一页最后一行，向前加载时是下一页第一行；
+ * 开启占位符时只在刷新时计数，追加加载不再计数
+ */
+internal class KeysetPagingSource<T : Any>(
+    private val dao: BaseDao<T>,
+    private val db: RoomDatabase,
+    private val orderColumn: String,
+    private val descending: Boolean,
+    private val cursorOf: (T) -> KeysetCursor
+) : PagingSource<KeysetCursor, T>() {
+
+    private val observer = object : InvalidationTracker.Observer(dao.tableName) {
+        override fun onInvalidated(tables: Set<String>) {
+            invalidate()
+        }
+    }
+
+    // 首次加载时在后台线程注册，避免在主线程上同步触发器
+    private val registered = AtomicBoolean(false)
+
+    init {
+        registerInvalidatedCallback { db.invalidationTracker.removeObserver(observer) }
+    }
+
+    override suspend fun load(params: LoadParams<KeysetCursor>): LoadResult<KeysetCursor, T> {
+        return withContext(Dispatchers.IO) {
+            if (registered.compareAndSet(false, true)) {
+                db.invalidationTracker.addObserver(observer)
+            }
+            val result = when (params) {
+                is LoadParams.Refresh -> db.runInTransaction<LoadResult<KeysetCursor, T>> {
+                    loadAfter(params.key, params.loadSize, params.placeholdersEnabled)
+                }
+                is LoadParams.Append -> loadAfter(params.key, params.loadSize, false)
+                is LoadParams.Prepend -> loadBefore(params.key, params.loadSize)
+            }
+            if (invalid) LoadResult.Invalid() else result
+        }
+    }
+
+    private fun loadAfter(key: KeysetCursor?, loadSize: Int, countItems: Boolean): LoadResult<KeysetCursor, T> {
+        val page = dao.pageAfter(orderColumn, key?.value, key?.id ?: 0, loadSize, descending, cursorOf)
+        val rows = page.rows
+        // 刷新位置之后的数据已被删除时从头加载
+        if (key != null && rows.isEmpty() && countItems) return loadAfter(null, loadSize, true)
+        val prevKey = if (key == null || rows.isEmpty()) null else cursorOf(rows.first())
+        if (!countItems) {
+            return LoadResult.Page(rows, prevKey, page.next)
+        }
+        val after = dao.countAfter(orderColumn, key?.value, key?.id ?: 0, descending)
+        val total = if (key == null) after else dao.countAfter(orderColumn, null, 0, descending)
+        return LoadResult.Page(
+            data = rows,
+            prevKey = prevKey,
+            nextKey = page.next,
+            itemsBefore = (total - after).toInt(),
+            itemsAfter = (after - rows.size).toInt().coerceAtLeast(0)
+        )
+    }
+
+    private fun loadBefore(key: KeysetCursor, loadSize: Int): LoadResult<KeysetCursor, T> {
+        val page = dao.pageAfter(orderColumn, key.value, key.id, loadSize, !descending, cursorOf)
+        val rows = page.rows.asReversed()
+        val prevKey = if (page.next == null) null else cursorOf(rows.first())
+        return LoadResult.Page(rows, prevKey, rows.lastOrNull()?.let(cursorOf))
+    }
+
+    override fun getRefreshKey(state: PagingState<KeysetCursor, T>): KeysetCursor? {
+        val anchor = state.anchorPosition ?: return null
+        // 从锚点前半个初始页开始刷新，使锚点附近的数据都在刷新结果中
+        val start = anchor - state.config.initialLoadSize / 2
+        if (start <= 0) return null
+        return state.closestItemToPosition(start - 1)?.let(cursorOf)
+    }
+}
@@ -0,0 +1,62 @@
+package com.wyx.commondatabase
+
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class DaoQueryTest {
+
+    @Test
+    fun select_bindsValuesAsPlaceholders() {
+        val query = DaoQuery("user")
+            .eq("name", "a' or '1'='1")
+            .inList("age", listOf(18, 19))
+            .orderBy("id", descending = true)
+            .limit(10, 20)
+
+        assertEquals(
+            "SELECT * FROM user WHERE name = ? AND age IN (?,?) ORDER BY id DESC LIMIT ? OFFSET ?",
+            query.sql(DaoQuery.Action.SELECT)
+        )
+        assertArrayEquals(arrayOf<Any?>("a' or '1'='1", 18, 19, 10, 20), query.bindArgs())
+    }
+
+    @Test
+    fun sameShape_reusesCachedSql() {
+        val first = DaoQuery("user").eq("name", "a").limit(10).sql(DaoQuery.Action.SELECT)
+        val second = DaoQuery("user").eq("name", "b").limit(50).sql(DaoQuery.Action.SELECT)
+
+        assertSame(first, second)
+    }
+
+    @Test
+    fun inList_padsPlaceholdersToPowerOfTwoWithNulls() {
+        val three = DaoQuery("user").inList("id", listOf(1L, 2L, 3L))
+        val four = DaoQuery("user").inList("id", listOf(1L, 2L, 3L, 4L))
+
+        assertEquals("SELECT * FROM user WHERE id IN (?,?,?,?)", three.sql(DaoQuery.Action.SELECT))
+        assertArrayEquals(arrayOf<Any?>(1L, 2L, 3L, null), three.bindArgs())
+        assertSame(three.sql(DaoQuery.Action.SELECT), four.sql(DaoQuery.Action.SELECT))
+    }
+
+    @Test
+    fun after_usesIndexFriendlyKeysetPredicate() {
+        val query = DaoQuery("user")
+            .after("name", "bob", 42, descending = true)
+            .orderBy("name", descending = true)
+            .orderBy("id", descending = true)
+            .limit(20)
+
+        assertEquals(
+            "SELECT * FROM user WHERE (name <= ? AND (name < ? OR id < ?)) ORDER BY name DESC, id DESC LIMIT ?",
+            query.sql(DaoQuery.Action.SELECT)
+        )
+        assertArrayEquals(arrayOf<Any?>("bob", "bob", 42L, 20), query.bindArgs())
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun illegalColumn_isRejected() {
+        DaoQuery("user").eq("name = 'x' or 1", "a")
+    }
+}
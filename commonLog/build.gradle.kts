@@ -43,19 +43,23 @@ android {
 
 dependencies {
 
+    implementation(project(":commonBase"))
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.appcompat)
     implementation(libs.material)
     implementation(libs.androidx.work.runtime.ktx)
     testImplementation(libs.junit)
+    testImplementation("com.squareup.okhttp3:mockwebserver:5.1.0")
     androidTestImplementation(libs.androidx.junit)
     androidTestImplementation(libs.androidx.espresso.core)
+    androidTestImplementation("com.squareup.okhttp3:mockwebserver:5.1.0")
 
     api("com.jakewharton.timber:timber:5.0.1")
     val room_version = "2.7.0"
     api("androidx.room:room-runtime:$room_version")
     ksp("androidx.room:room-compiler:$room_version")
     api("androidx.room:room-ktx:$room_version")
+    api("androidx.room:room-paging:$room_version")
     implementation("com.google.code.gson:gson:2.10.1")
 
     implementation("com.squareup.okhttp3:okhttp:5.1.0")
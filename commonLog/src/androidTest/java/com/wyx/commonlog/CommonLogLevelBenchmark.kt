@@ -0,0 +1,54 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * 级别关闭时的调用开销：先拼接字符串再过滤与 lambda 延迟构造对比，只输出结果不做断言
+ */
+@RunWith(AndroidJUnit4::class)
+class CommonLogLevelBenchmark {
+
+    private data class User(val id: Long, val name: String, val tags: List<String>)
+
+    private val user = User(42, "benchmark", listOf("a", "b", "c"))
+
+    @Before
+    fun setUp() {
+        CommonLog.setMinLevel(Log.WARN)
+    }
+
+    @After
+    fun tearDown() {
+        CommonLog.setMinLevel(Log.VERBOSE)
+    }
+
+    @Test
+    fun disabledLevel_eagerVsLazy() {
+        // 预热，让两种调用都经过 JIT 编译
+        repeat(WARM_UP) {
+            CommonLog.d("user=$user index=$it")
+            CommonLog.d { "user=$user index=$it" }
+        }
+
+        val eagerStart = System.nanoTime()
+        repeat(COUNT) { CommonLog.d("user=$user index=$it") }
+        val eagerNs = (System.nanoTime() - eagerStart) / COUNT
+
+        val lazyStart = System.nanoTime()
+        repeat(COUNT) { CommonLog.d { "user=$user index=$it" } }
+        val lazyNs = (System.nanoTime() - lazyStart) / COUNT
+
+        Log.i(TAG, "disabled debug log: eager $eagerNs ns/call, lazy $lazyNs ns/call")
+    }
+
+    companion object {
+        private const val TAG = "CommonLogLevelBenchmark"
+        private const val WARM_UP = 10_000
+        private const val COUNT = 100_000
+    }
+}
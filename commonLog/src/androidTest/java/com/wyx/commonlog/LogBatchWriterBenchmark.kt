@@ -0,0 +1,73 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import androidx.room.Room
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import androidx.test.platform.app.InstrumentationRegistry
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.joinAll
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * 对比逐条插入（每条日志一个协程、一次事务）与批量写入器的吞吐，只输出结果，不断言耗时
+ */
+@RunWith(AndroidJUnit4::class)
+class LogBatchWriterBenchmark {
+
+    private val context = InstrumentationRegistry.getInstrumentation().targetContext
+    private lateinit var database: LogDatabase
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    @Before
+    fun setUp() {
+        context.deleteDatabase(DB_NAME)
+        database = Room.databaseBuilder(context, LogDatabase::class.java, DB_NAME).build()
+    }
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        database.close()
+        context.deleteDatabase(DB_NAME)
+    }
+
+    @Test
+    fun batchWriter_vsPerRecordInsert() = runBlocking {
+        val dao = database.logDao()
+
+        val perRecordStart = System.nanoTime()
+        (0 until COUNT).map { index ->
+            scope.launch { dao.insert(record(index)) }
+        }.joinAll()
+        val perRecordMs = (System.nanoTime() - perRecordStart) / 1_000_000
+
+        val writer = LogBatchWriter(RoomLogStore(dao), scope, maxBatchSize = 200, maxDelayMs = 50)
+        val job = writer.start()
+        val batchStart = System.nanoTime()
+        repeat(COUNT) { writer.write(System.currentTimeMillis(), Log.DEBUG, TAG, "benchmark message $it") }
+        writer.close()
+        job.join()
+        val batchMs = (System.nanoTime() - batchStart) / 1_000_000
+
+        Log.i(TAG, "per-record: ${COUNT * 1000 / maxOf(perRecordMs, 1)} logs/s, batch: ${COUNT * 1000 / maxOf(batchMs, 1)} logs/s")
+        assertEquals(COUNT * 2, dao.getOldestLogs(COUNT * 2).size)
+    }
+
+    private fun record(index: Int) =
+        LogRecordBean(timeMillis = System.currentTimeMillis(), level = "DEBUG", tag = TAG, message = "benchmark message $index")
+
+    companion object {
+        private const val TAG = "LogBatchWriterBenchmark"
+        private const val DB_NAME = "log_benchmark.db"
+        private const val COUNT = 2000
+    }
+}
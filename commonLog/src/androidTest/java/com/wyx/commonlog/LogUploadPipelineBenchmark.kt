@@ -0,0 +1,87 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.TimeUnit
+
+/**
+ * 对比逐批串行上传与并发流水线的吞吐，服务端每个响应固定延迟 [BODY_DELAY_MS]；只输出结果，不断言耗时
+ */
+@RunWith(AndroidJUnit4::class)
+class LogUploadPipelineBenchmark {
+
+    private val server = MockWebServer()
+    private lateinit var uploader: LogUploader
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse =
+                MockResponse()
+                    .setBody("{\"errors\":false,\"items\":[]}")
+                    .setBodyDelay(BODY_DELAY_MS, TimeUnit.MILLISECONDS)
+        }
+        server.start()
+        uploader = LogUploader(OkHttpClient(), server.url("/logs").toString(), LogCompression.NONE)
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun sequentialVsPipelined() {
+        val sequentialMs = drain(maxInFlight = 1)
+        val pipelinedMs = drain(maxInFlight = 4)
+
+        Log.i(TAG, "$BATCHES batches x $BATCH_SIZE logs, ${BODY_DELAY_MS}ms per response: " +
+                "sequential ${BATCHES * BATCH_SIZE * 1000L / maxOf(sequentialMs, 1)} logs/s, " +
+                "pipelined ${BATCHES * BATCH_SIZE * 1000L / maxOf(pipelinedMs, 1)} logs/s")
+    }
+
+    // 上传 BATCHES 个批次，返回耗时（毫秒）
+    private fun drain(maxInFlight: Int): Long = runBlocking {
+        val sizer = AdaptiveBatchSizer(minSize = BATCH_SIZE, maxSize = BATCH_SIZE,
+            targetLatencyMs = 10_000, maxBytes = Long.MAX_VALUE)
+        val pipeline = LogUploadPipeline(uploader, maxInFlight, sizer)
+        var next = 1
+        var acked = 0
+        val start = System.nanoTime()
+        pipeline.run(
+            next = { limit, _ ->
+                if (next > BATCHES * limit) emptyList() else records(next, limit).also { next += limit }
+            },
+            onAck = { logs, result ->
+                acked += logs.size
+                result.isSuccessful
+            }
+        )
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        assertEquals(BATCHES * BATCH_SIZE, acked)
+        elapsedMs
+    }
+
+    private fun records(from: Int, count: Int) = (from until from + count).map {
+        LogRecordBean(id = it.toLong(), timeMillis = System.currentTimeMillis(), level = "INFO", tag = TAG,
+            message = "benchmark message $it")
+    }
+
+    companion object {
+        private const val TAG = "LogUploadPipelineBenchmark"
+        private const val BODY_DELAY_MS = 100L
+        private const val BATCHES = 20
+        private const val BATCH_SIZE = 100
+    }
+}
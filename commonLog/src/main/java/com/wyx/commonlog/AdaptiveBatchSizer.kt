@@ -0,0 +1,35 @@
+package com.wyx.commonlog
+
+/**
+ * 按上传耗时和请求体大小调整批次大小（AIMD）
+ *
+ * 批次被装满且耗时、大小都在目标以内时每次增加 [step] 条；超出目标或上传失败时减半。
+ * 只在按顺序确认的线程上调用，不需要同步
+ */
+class AdaptiveBatchSizer(
+    private val minSize: Int = LogConfig.uploadMinBatchSize,
+    private val maxSize: Int = LogConfig.uploadMaxBatchSize,
+    private val targetLatencyMs: Long = LogConfig.uploadTargetLatencyMs,
+    private val maxBytes: Long = LogConfig.uploadMaxBatchBytes,
+    private val step: Int = minSize
+) {
+    init {
+        require(minSize in 1..maxSize) { "invalid batch size range: $minSize..$maxSize" }
+    }
+
+    var batchSize = minSize
+        private set
+
+    fun onSuccess(count: Int, bytes: Long, latencyMs: Long) {
+        batchSize = when {
+            latencyMs > targetLatencyMs || bytes > maxBytes -> maxOf(minSize, batchSize / 2)
+            // 没有装满说明数据量不是瓶颈，保持不变
+            count >= batchSize -> minOf(maxSize, batchSize + step)
+            else -> batchSize
+        }
+    }
+
+    fun onFailure() {
+        batchSize = maxOf(minSize, batchSize / 2)
+    }
+}
@@ -2,6 +2,9 @@ package com.wyx.commonlog
 
 import android.content.Context
 import android.util.Log
+import androidx.paging.Pager
+import androidx.paging.PagingConfig
+import androidx.paging.PagingData
 import kotlinx.coroutines.flow.Flow
 import okhttp3.OkHttpClient
 import timber.log.Timber
@@ -10,14 +13,175 @@ object CommonLog {
 
     private var isInit = false
 
+    private var uploadTree: UploadTree? = null
+
+    /**
+     * [rateLimitPerSecond] 每个 tag + 级别每秒最多记录的日志条数，[rateLimitBurst] 为允许的突发条数，0 表示不限流；
+     * [collapseWindowMs] 该时间窗口内完全相同的日志合并为一条带重复次数的记录，0 表示不合并；
+     * [mode] 默认由 [usePersistence] 决定，也可以指定为 [LogMode.FLIGHT_RECORDER] 或 [LogMode.HYBRID]
+     */
     fun init(context: Context, isDebug : Boolean, usePersistence: Boolean,
              esUrl: String,
-             client: OkHttpClient ) {
+             client: OkHttpClient,
+             rateLimitPerSecond: Int = LogConfig.rateLimitPerSecond,
+             rateLimitBurst: Int = LogConfig.rateLimitBurst,
+             collapseWindowMs: Long = LogConfig.collapseWindowMs,
+             mode: LogMode = if (usePersistence) LogMode.PERSISTENCE else LogMode.MEMORY) {
+        LogConfig.rateLimitPerSecond = rateLimitPerSecond
+        LogConfig.rateLimitBurst = rateLimitBurst
+        LogConfig.collapseWindowMs = collapseWindowMs
         isInit = true
-        Timber.plant(if (isDebug) Timber.DebugTree() else UploadTree(context,usePersistence,esUrl,client))
+        if (isDebug) {
+            Timber.plant(LevelDebugTree())
+        } else {
+            uploadTree = UploadTree(context,mode,esUrl,client).also {
+                Timber.plant(it)
+                if (LogConfig.crashDumpEnabled) installCrashHandler(it)
+            }
+        }
+    }
+
+    /**
+     * 分页检索本地持久化的日志（仅 Room 存储），最新的在前，不会一次性加载全部记录
+     */
+    fun searchLogs(context: Context, query: LogQuery, pageSize: Int = 50): Flow<PagingData<LogRecordBean>> {
+        val dao = LogDatabaseProvider.get(context).logDao()
+        return Pager(PagingConfig(pageSize = pageSize, enablePlaceholders = false)) { query.pagingSource(dao) }.flow
+    }
+
+    /**
+     * 串联在原有的 UncaughtExceptionHandler 之前，先同步转储内存中的日志再交给原处理器
+     */
+    private fun installCrashHandler(tree: UploadTree) {
+        val previous = Thread.getDefaultUncaughtExceptionHandler()
+        Thread.setDefaultUncaughtExceptionHandler { thread, e ->
+            try {
+                tree.dumpOnCrash(thread, e)
+            } catch (ignored: Throwable) {
+            }
+            previous?.uncaughtException(thread, e)
+        }
+    }
+
+    // 所有 tag 中最低的允许级别，低于它的日志只需一次 volatile 读即可丢弃
+    @Volatile
+    private var gatePriority = Log.VERBOSE
+
+    @Volatile
+    private var minPriority = Log.VERBOSE
+
+    @Volatile
+    private var tagPriorities: Map<String, Int> = emptyMap()
+
+    /**
+     * 设置全局最低日志级别（android.util.Log 的级别常量）
+     */
+    fun setMinLevel(priority: Int) = synchronized(this) {
+        minPriority = priority
+        updateGate()
+    }
+
+    /**
+     * 设置某个 tag 的最低日志级别，覆盖全局设置
+     */
+    fun setMinLevel(tag: String, priority: Int) = synchronized(this) {
+        tagPriorities = tagPriorities + (tag to priority)
+        updateGate()
+    }
+
+    fun clearMinLevel(tag: String) = synchronized(this) {
+        tagPriorities = tagPriorities - tag
+        updateGate()
+    }
+
+    private fun updateGate() {
+        gatePriority = minOf(minPriority, tagPriorities.values.minOrNull() ?: minPriority)
+    }
+
+    /**
+     * 是否需要输出该级别的日志，在构造日志内容之前调用
+     */
+    fun isLoggable(priority: Int, tag: String?): Boolean {
+        if (priority < gatePriority) return false
+        val tags = tagPriorities
+        if (tags.isEmpty()) return priority >= minPriority
+        return priority >= (tag?.let { tags[it] } ?: minPriority)
+    }
+
+    /**
+     * 延迟构造日志内容，级别未开启时不会执行 [msg]
+     */
+    inline fun d(tag: String? = null, msg: () -> String) {
+        if (isLoggable(Log.DEBUG, tag)) log(Log.DEBUG, tag, msg())
+    }
+
+    inline fun e(tag: String? = null, msg: () -> String) {
+        if (isLoggable(Log.ERROR, tag)) log(Log.ERROR, tag, msg())
+    }
+
+    inline fun i(tag: String? = null, msg: () -> String) {
+        if (isLoggable(Log.INFO, tag)) log(Log.INFO, tag, msg())
+    }
+
+    inline fun v(tag: String? = null, msg: () -> String) {
+        if (isLoggable(Log.VERBOSE, tag)) log(Log.VERBOSE, tag, msg())
+    }
+
+    inline fun w(tag: String? = null, msg: () -> String) {
+        if (isLoggable(Log.WARN, tag)) log(Log.WARN, tag, msg())
+    }
+
+    /**
+     * 记录结构化日志，字段以二进制编码保存，上传时作为 fields 对象写入：
+     * `CommonLog.event("Pay") { put("orderId", id); put("costMs", cost) }`
+     */
+    inline fun event(tag: String, priority: Int = Log.INFO, message: String = "", fields: LogFields.() -> Unit) {
+        if (isLoggable(priority, tag)) logEvent(priority, tag, message, LogFields().apply(fields).toByteArray())
+    }
+
+    /**
+     * 日志链路的统计快照，可通过 [LogMetricsSnapshot.toMap] 上报到监控
+     */
+    suspend fun metrics(): LogMetricsSnapshot {
+        val tree = uploadTree ?: return LogMetrics.snapshot()
+        return LogMetrics.snapshot(tree.bufferDepth(), tree.backlogRows())
+    }
+
+    @PublishedApi
+    internal fun logEvent(priority: Int, tag: String, message: String, fields: ByteArray) {
+        if (!isInit) {
+            throw RuntimeException("CommonLog error, must call init")
+        }
+        val tree = uploadTree
+        if (tree != null) {
+            tree.logEvent(priority, tag, message, fields)
+        } else {
+            // Debug 模式下直接以文本形式输出到 Logcat
+            Timber.tag(tag)
+            Timber.log(priority, "$message ${LogFields.toJson(fields)}")
+        }
+    }
+
+    @PublishedApi
+    internal fun log(priority: Int, tag: String?, msg: String) {
+        if (!isInit) {
+            throw RuntimeException("CommonLog error, must call init")
+        }
+        if (tag != null) {
+            Timber.tag(tag)
+        }
+        Timber.log(priority, msg)
+    }
+
+    /**
+     * Debug 模式下输出到 Logcat，按 [LogConfig.debugMinPriority] 过滤
+     */
+    private class LevelDebugTree : Timber.DebugTree() {
+        override fun isLoggable(tag: String?, priority: Int) = priority >= LogConfig.debugMinPriority
     }
 
     fun d(msg : String) {
+        if (!isLoggable(Log.DEBUG, null)) return
         if (!isInit) {
             throw RuntimeException("CommonLog error, must call init")
         }
@@ -25,13 +189,26 @@ object CommonLog {
     }
 
     fun e(msg : String) {
+        if (!isLoggable(Log.ERROR, null)) return
         if (!isInit) {
             throw RuntimeException("CommonLog error, must call init")
         }
         Timber.e(msg)
     }
 
+    /**
+     * 记录异常，堆栈按指纹去重保存
+     */
+    fun e(msg : String, t: Throwable) {
+        if (!isLoggable(Log.ERROR, null)) return
+        if (!isInit) {
+            throw RuntimeException("CommonLog error, must call init")
+        }
+        Timber.e(t, msg)
+    }
+
     fun i(msg : String) {
+        if (!isLoggable(Log.INFO, null)) return
         if (!isInit) {
             throw RuntimeException("CommonLog error, must call init")
         }
@@ -39,6 +216,7 @@ object CommonLog {
     }
 
     fun v(msg : String) {
+        if (!isLoggable(Log.VERBOSE, null)) return
         if (!isInit) {
             throw RuntimeException("CommonLog error, must call init")
         }
@@ -46,12 +224,21 @@ object CommonLog {
     }
 
     fun w(msg : String) {
+        if (!isLoggable(Log.WARN, null)) return
         if (!isInit) {
             throw RuntimeException("CommonLog error, must call init")
         }
         Timber.w(msg)
     }
 
+    fun w(msg : String, t: Throwable) {
+        if (!isLoggable(Log.WARN, null)) return
+        if (!isInit) {
+            throw RuntimeException("CommonLog error, must call init")
+        }
+        Timber.w(t, msg)
+    }
+
 //    companion object {
 //        private var commonLog : CommonLog? = null
 //        private var mTag : String = ""
@@ -0,0 +1,47 @@
+package com.wyx.commonlog
+
+import okhttp3.MediaType
+import okhttp3.RequestBody
+import okio.BufferedSink
+import okio.DeflaterSink
+import okio.GzipSink
+import okio.buffer
+import java.util.zip.Deflater
+
+/**
+ * 日志上传使用的压缩方式，对应请求头 Content-Encoding
+ */
+enum class LogCompression(val encoding: String?) {
+    NONE(null),
+    GZIP("gzip"),
+    DEFLATE("deflate")
+}
+
+/**
+ * 流式压缩的请求体
+ *
+ * [delegate] 写出的内容边写边压缩，不会在内存中保留未压缩的完整请求体；
+ * 压缩后长度未知，以 chunked 方式发送
+ */
+class CompressedRequestBody(
+    private val delegate: RequestBody,
+    private val compression: LogCompression,
+    private val level: Int = Deflater.DEFAULT_COMPRESSION
+) : RequestBody() {
+
+    override fun contentType(): MediaType? = delegate.contentType()
+
+    override fun contentLength(): Long = if (compression == LogCompression.NONE) delegate.contentLength() else -1
+
+    override fun writeTo(sink: BufferedSink) {
+        val compressedSink = when (compression) {
+            LogCompression.NONE -> {
+                delegate.writeTo(sink)
+                return
+            }
+            LogCompression.GZIP -> GzipSink(sink).apply { deflater.setLevel(level) }
+            LogCompression.DEFLATE -> DeflaterSink(sink, Deflater(level))
+        }.buffer()
+        compressedSink.use { delegate.writeTo(it) }
+    }
+}
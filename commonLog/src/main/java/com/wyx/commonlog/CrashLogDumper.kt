@@ -0,0 +1,118 @@
+package com.wyx.commonlog
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * 崩溃时把内存中尚未上传的日志同步写入预先分配的映射文件
+ *
+ * 文件在初始化时就映射好，崩溃时只做 [LogRecordCodec] 编码和内存拷贝，不使用 Room 和协程；
+ * 进程退出后映射页由系统写回文件。每写一条都检查时间预算和剩余空间，超出即停止。
+ * 文件中的日志由下一次运行的 [LogUploadWorker] 读出并写入 [LogStore]
+ */
+class CrashLogDumper internal constructor(file: File, capacity: Int) {
+
+    private val lock = ReentrantLock()
+    private val codec = LogRecordCodec()
+    private val buffer: MappedByteBuffer = RandomAccessFile(file, "rw").use { raf ->
+        raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, maxOf(raf.length(), capacity.toLong()))
+    }
+    private var nextId = 1L
+
+    init {
+        // 上次崩溃写入但尚未上传的日志保留，新的日志接在后面
+        while (true) {
+            val record = codec.decode(buffer) ?: break
+            nextId = record.id + 1
+        }
+        terminate()
+    }
+
+    val isEmpty: Boolean
+        get() = lock.withLock { buffer.position() == 0 }
+
+    /**
+     * 在 [timeoutMs] 内执行 [block] 写入日志，返回写入条数；拿不到锁时直接返回 0
+     */
+    fun dump(timeoutMs: Long, block: (Dump) -> Unit): Int {
+        val deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs)
+        if (!lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) return 0
+        try {
+            val dump = Dump(deadline)
+            block(dump)
+            return dump.count
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    inner class Dump internal constructor(private val deadline: Long) {
+        var count = 0
+            private set
+
+        /** 剩余的时间预算 */
+        val remainingMs: Long
+            get() = maxOf(0L, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))
+
+        /**
+         * 写入一条日志，超出时间预算或文件已满时返回 false，调用方应停止写入
+         */
+        fun write(record: LogRecordBean): Boolean {
+            if (System.nanoTime() >= deadline) return false
+            val encoded = codec.encode(nextId, record)
+            if (buffer.remaining() < encoded.remaining() + 4) return false
+            buffer.put(encoded)
+            // 每条之后都写好结束标记，转储中途被杀死时已写入的部分仍然可读
+            terminate()
+            nextId++
+            count++
+            return true
+        }
+    }
+
+    /**
+     * 读出文件中的全部日志
+     */
+    fun readAll(): List<LogRecordBean> = lock.withLock {
+        val reader = buffer.duplicate()
+        reader.position(0)
+        val result = ArrayList<LogRecordBean>()
+        while (true) {
+            result.add(codec.decode(reader) ?: break)
+        }
+        result
+    }
+
+    /**
+     * 日志已写入存储后清空文件；读出之后又有新写入时保留，宁可重复上传也不丢失
+     */
+    fun clearThrough(lastId: Long) = lock.withLock {
+        if (nextId - 1 != lastId) return@withLock
+        buffer.position(0)
+        terminate()
+        nextId = 1
+    }
+
+    private fun terminate() {
+        if (buffer.remaining() >= 4) {
+            buffer.putInt(buffer.position(), 0)
+        }
+    }
+
+    companion object {
+        private const val FILE_NAME = "common_log_crash.bin"
+
+        private val instances = HashMap<String, CrashLogDumper>()
+
+        fun getInstance(dir: File, capacity: Int = LogConfig.crashDumpBytes): CrashLogDumper =
+            synchronized(instances) {
+                val file = File(dir, FILE_NAME)
+                instances.getOrPut(file.absolutePath) { CrashLogDumper(file, capacity) }
+            }
+    }
+}
@@ -0,0 +1,108 @@
+package com.wyx.commonlog
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runInterruptible
+
+/**
+ * 持久化模式下的批量写入器（group commit）
+ *
+ * 日志先写入有界的 [LogRingBuffer]，由单个写协程取出，凑满 [maxBatchSize] 条或等待 [maxDelayMs] 后
+ * 在一个事务中批量插入，避免每条日志一个协程、一次事务
+ */
+class LogBatchWriter(
+    private val store: LogStore,
+    private val scope: CoroutineScope,
+    private val stackRegistry: LogStackRegistry? = null,
+    private val maxBatchSize: Int = LogConfig.writeBatchSize,
+    private val maxDelayMs: Long = LogConfig.writeDelayMs,
+    queueCapacity: Int = LogConfig.writeQueueCapacity
+) {
+
+    private val queue = LogRingBuffer(
+        queueCapacity,
+        LogConfig.overflowPolicy,
+        LogConfig.dropBelowPriority,
+        LogConfig.blockTimeoutMs
+    )
+
+    /**
+     * 写入一条日志，队列已满时按 [LogConfig.overflowPolicy] 处理，返回 false 表示该日志被丢弃
+     */
+    fun write(timeMillis: Long, priority: Int, tag: String?, message: String,
+              fields: ByteArray? = null, stackFingerprint: Long = 0L): Boolean =
+        queue.offer(timeMillis, priority, tag, message, fields, stackFingerprint)
+
+    /**
+     * 把 [source] 中的全部日志转移到写入队列
+     */
+    fun writeFrom(source: LogRingBuffer): Int = source.transferTo(queue)
+
+    /**
+     * 启动写协程，[close] 之后会写完队列中剩余的日志和尚未输出的汇总记录再结束
+     */
+    fun start(): Job = scope.launch {
+        val drained = ArrayList<LogRecordBean>(maxBatchSize)
+        val batch = ArrayList<LogRecordBean>(maxBatchSize)
+        val collapser = LogConfig.collapseWindowMs.takeIf { it > 0 }?.let { LogCollapser(it) }
+        var sinceQuotaCheck = QUOTA_CHECK_INTERVAL
+        while (true) {
+            // 有待输出的汇总记录时最多等到其窗口结束，没有新日志也能按时写入
+            val idleTimeoutMs = collapser?.nextFlushDelayMs(System.currentTimeMillis()) ?: Long.MAX_VALUE
+            val n = runInterruptible { queue.awaitDrainTo(drained, maxBatchSize, maxDelayMs, idleTimeoutMs) }
+            val closing = n == 0 && queue.isClosed
+            if (collapser != null) {
+                // 关闭时输出全部汇总记录，不等窗口结束
+                collapser.flushExpired(if (closing) Long.MAX_VALUE else System.currentTimeMillis(), batch)
+                collapser.collapse(drained, batch)
+            } else {
+                batch.addAll(drained)
+            }
+            drained.clear()
+            if (batch.isNotEmpty()) {
+                try {
+                    // 先保存新出现的堆栈，再写入引用它们的日志
+                    stackRegistry?.drainPending(System.currentTimeMillis(), batch)
+                        ?.takeIf { it.isNotEmpty() }
+                        ?.let { store.recordStacks(it) }
+                    store.append(batch)
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                    LogMetrics.onDropped(batch)
+                }
+                // 每写入一定条数检查一次存储配额
+                sinceQuotaCheck += batch.size
+                batch.clear()
+                if (sinceQuotaCheck >= QUOTA_CHECK_INTERVAL) {
+                    sinceQuotaCheck = 0
+                    try {
+                        store.enforceQuota()
+                    } catch (e: Exception) {
+                        e.printStackTrace()
+                    }
+                }
+            }
+            if (closing) break
+        }
+    }
+
+    /**
+     * 队列中等待写入的日志数
+     */
+    val size: Int
+        get() = queue.size
+
+    /**
+     * 遍历队列中尚未写入存储的日志，见 [LogRingBuffer.snapshot]
+     */
+    fun snapshot(timeoutMs: Long, action: (LogEvent) -> Boolean): Boolean = queue.snapshot(timeoutMs, action)
+
+    fun close() {
+        queue.close()
+    }
+
+    companion object {
+        private const val QUOTA_CHECK_INTERVAL = 1000
+    }
+}
@@ -0,0 +1,82 @@
+package com.wyx.commonlog
+
+/**
+ * 合并时间窗口内重复的日志
+ *
+ * 同一 tag、级别、内容、异常堆栈的日志在 [windowMs] 内第一次出现时正常输出，之后的重复日志只计数；
+ * 窗口结束时输出一条 repeatCount 为重复次数的汇总记录。只在消费线程上调用，不需要加锁
+ */
+class LogCollapser(private val windowMs: Long, private val maxEntries: Int = 512) {
+
+    private class Key(val tag: String?, val level: String, val message: String, val fields: ByteArray?,
+                      val stackFingerprint: Long?) {
+        override fun equals(other: Any?) = other is Key && tag == other.tag && level == other.level &&
+                message == other.message && fields.contentEquals(other.fields) &&
+                stackFingerprint == other.stackFingerprint
+
+        override fun hashCode() = (((tag.hashCode() * 31 + level.hashCode()) * 31 + message.hashCode()) * 31 +
+                fields.contentHashCode()) * 31 + stackFingerprint.hashCode()
+    }
+
+    private class Entry(val windowStart: Long, var last: LogRecordBean, var repeats: Int = 0)
+
+    private val entries = LinkedHashMap<Key, Entry>()
+
+    /**
+     * 将 [records] 合并后写入 [out]
+     */
+    fun collapse(records: List<LogRecordBean>, out: MutableList<LogRecordBean>) {
+        records.forEach { record ->
+            val key = Key(record.tag, record.level, record.message, record.fields, record.stackFingerprint)
+            val entry = entries[key]
+            if (entry != null && record.timeMillis - entry.windowStart < windowMs) {
+                entry.last = record
+                entry.repeats += record.repeatCount
+                return@forEach
+            }
+            if (entry != null) {
+                emit(entry, out)
+            }
+            entries.remove(key)
+            entries[key] = Entry(record.timeMillis, record)
+            out.add(record)
+        }
+        while (entries.size > maxEntries) {
+            val eldest = entries.entries.iterator()
+            emit(eldest.next().value, out)
+            eldest.remove()
+        }
+    }
+
+    /**
+     * 输出窗口已结束的汇总记录
+     */
+    fun flushExpired(now: Long, out: MutableList<LogRecordBean>) {
+        val iterator = entries.values.iterator()
+        while (iterator.hasNext()) {
+            val entry = iterator.next()
+            if (now - entry.windowStart >= windowMs) {
+                emit(entry, out)
+                iterator.remove()
+            }
+        }
+    }
+
+    /**
+     * 距离最早一条待输出的汇总记录窗口结束还有多少毫秒，没有待输出的汇总记录时返回 null
+     */
+    fun nextFlushDelayMs(now: Long): Long? {
+        var earliest = Long.MAX_VALUE
+        for (entry in entries.values) {
+            if (entry.repeats > 0) earliest = minOf(earliest, entry.windowStart)
+        }
+        return if (earliest == Long.MAX_VALUE) null else maxOf(0L, earliest + windowMs - now)
+    }
+
+    private fun emit(entry: Entry, out: MutableList<LogRecordBean>) {
+        if (entry.repeats > 0) {
+            out.add(entry.last.copy(id = 0, repeatCount = entry.repeats))
+            entry.repeats = 0
+        }
+    }
+}
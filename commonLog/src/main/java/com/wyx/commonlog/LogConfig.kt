@@ -1,14 +1,121 @@
 package com.wyx.commonlog
 
+import android.util.Log
 import okhttp3.OkHttpClient
+import java.util.zip.Deflater
 
 object LogConfig {
 
     var client: OkHttpClient? = null
     var esUrl: String? = null
 
+    /**
+     * 上传请求体的压缩方式，日志文本通常可压缩到原来的 1/10 左右
+     */
+    var compression: LogCompression = LogCompression.GZIP
+
+    /**
+     * 压缩级别 0-9，默认取 zlib 的默认级别
+     */
+    var compressionLevel: Int = Deflater.DEFAULT_COMPRESSION
+
+    /**
+     * 内存模式缓冲区容量及满时的丢弃策略
+     */
+    var bufferCapacity: Int = 2000
+    var overflowPolicy: OverflowPolicy = OverflowPolicy.DROP_OLDEST
+
+    /**
+     * [OverflowPolicy.DROP_BELOW_LEVEL] 时优先丢弃低于该级别的日志
+     */
+    var dropBelowPriority: Int = Log.WARN
+
+    /**
+     * [OverflowPolicy.BLOCK] 时写入线程的最长等待时间
+     */
+    var blockTimeoutMs: Long = 50
+
+    /**
+     * 飞行记录仪模式下内存中保留的最近低级别日志条数
+     */
+    var flightRecorderCapacity: Int = 500
+
+    /**
+     * 混合模式：缓冲区超过容量的该比例后新日志直接转存；上传失败后在 [spillBackoffMs] 内不再直接上传，
+     * 连续失败时加倍，最长 [spillMaxBackoffMs]
+     */
+    var spillHighWater: Float = 0.75f
+    var spillBackoffMs: Long = 60_000
+    var spillMaxBackoffMs: Long = 15 * 60_000
+
+    /**
+     * 持久化模式批量写入：每批最多条数、最长等待时间及队列容量
+     */
+    var writeBatchSize: Int = 200
+    var writeDelayMs: Long = 200
+    var writeQueueCapacity: Int = 10_000
+
+    /**
+     * 持久化模式使用的存储实现
+     */
+    var storeType: LogStoreType = LogStoreType.ROOM
+
+    /**
+     * 持久化存储的字节数和条数上限，超出后按级别从低到高、从旧到新淘汰，0 表示不限制
+     */
+    var maxStoreBytes: Long = 20L * 1024 * 1024
+    var maxStoreRows: Long = 200_000
+
+    /**
+     * LogUploadWorker 单次运行的时间预算和上传流量预算
+     */
+    var drainTimeBudgetMs: Long = 60_000
+    var drainByteBudget: Long = 4L * 1024 * 1024
+
+    /**
+     * 同时进行的上传请求数，以及自适应批次的条数范围、目标耗时和请求体大小上限
+     */
+    var uploadConcurrency: Int = 4
+    var uploadMinBatchSize: Int = 50
+    var uploadMaxBatchSize: Int = 1000
+    var uploadTargetLatencyMs: Long = 3000
+    var uploadMaxBatchBytes: Long = 1024 * 1024
+
+    /**
+     * 内存模式的上传间隔：不计费网络且充电或在前台时、前台时、后台计费网络时；
+     * 其他应用已经唤醒无线电时，距上次上传超过 [uploadCoalesceMinIntervalMs] 即顺带上传
+     */
+    var uploadUnmeteredIntervalMs: Long = 5_000
+    var uploadForegroundIntervalMs: Long = 30_000
+    var uploadBackgroundIntervalMs: Long = 15 * 60_000
+    var uploadCoalesceMinIntervalMs: Long = 5_000
+
+    /**
+     * 未捕获异常时把内存中的日志转储到文件，[crashDumpBytes] 为预分配的文件大小，[crashDumpTimeoutMs] 为转储的时间上限
+     */
+    var crashDumpEnabled: Boolean = true
+    var crashDumpBytes: Int = 512 * 1024
+    var crashDumpTimeoutMs: Long = 200
+
+    /**
+     * 每个 tag + 级别每秒允许的日志条数及突发上限，0 表示不限流
+     */
+    var rateLimitPerSecond: Int = 0
+    var rateLimitBurst: Int = 0
+
+    /**
+     * 重复日志合并的时间窗口，0 表示不合并
+     */
+    var collapseWindowMs: Long = 0
+
+    /**
+     * 各日志树的最低输出级别，分别对应 Debug 模式的 Logcat 输出与 Release 模式的 UploadTree
+     */
+    var debugMinPriority: Int = Log.VERBOSE
+    var uploadMinPriority: Int = Log.VERBOSE
+
     fun isInitialized(): Boolean {
         return client != null && esUrl != null
     }
 
-}
\ No newline at end of file
+}
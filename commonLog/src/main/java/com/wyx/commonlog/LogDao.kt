@@ -1,26 +1,84 @@
 package com.wyx.commonlog
 
+import androidx.paging.PagingSource
 import androidx.room.Dao
 import androidx.room.Database
 import androidx.room.Delete
 import androidx.room.Insert
+import androidx.room.OnConflictStrategy
 import androidx.room.Query
+import androidx.room.RawQuery
 import androidx.room.RoomDatabase
+import androidx.sqlite.db.SupportSQLiteQuery
 
 @Dao
 interface LogDao {
     @Insert
     suspend fun insert(log: LogRecordBean)
 
+    // 批量插入，在同一个事务中完成
+    @Insert
+    suspend fun insertAll(logs: List<LogRecordBean>)
+
     // 取出最早的 X 条日志
     @Query("SELECT * FROM log_record ORDER BY id ASC LIMIT :limit")
     suspend fun getOldestLogs(limit: Int): List<LogRecordBean>
 
+    // keyset 分页，按主键索引定位，不随翻页深度变慢
+    @Query("SELECT * FROM log_record WHERE id > :lastId ORDER BY id ASC LIMIT :limit")
+    suspend fun getLogsAfter(lastId: Long, limit: Int): List<LogRecordBean>
+
+    @Query("SELECT COUNT(*) FROM log_record")
+    suspend fun count(): Long
+
     @Delete
     suspend fun delete(logs: List<LogRecordBean>)
+
+    // 按 id 区间删除已上传的日志
+    @Query("DELETE FROM log_record WHERE id <= :maxId")
+    suspend fun deleteThrough(maxId: Long): Int
+
+    // 某级别最早的 limit 条日志中最大的 id，走 (level, id) 索引
+    @Query("SELECT MAX(id) FROM (SELECT id FROM log_record WHERE level = :level ORDER BY id ASC LIMIT :limit)")
+    suspend fun getLevelCutoffId(level: String, limit: Int): Long?
+
+    // 按级别 + id 区间淘汰日志
+    @Query("DELETE FROM log_record WHERE level = :level AND id <= :maxId")
+    suspend fun deleteLevelThrough(level: String, maxId: Long): Int
+
+    // 本地检索，按 id 倒序（最新的在前）分页
+    @Query("SELECT * FROM log_record WHERE level IN (:levels) AND (:tag IS NULL OR tag = :tag) " +
+            "AND time_millis BETWEEN :fromMillis AND :toMillis ORDER BY id DESC")
+    fun search(levels: List<String>, tag: String?, fromMillis: Long, toMillis: Long): PagingSource<Int, LogRecordBean>
+
+    // 全文检索，先在 FTS 索引中匹配出 rowid 再回表过滤
+    @Query("SELECT * FROM log_record WHERE id IN (SELECT rowid FROM log_record_fts WHERE log_record_fts MATCH :match) " +
+            "AND level IN (:levels) AND (:tag IS NULL OR tag = :tag) " +
+            "AND time_millis BETWEEN :fromMillis AND :toMillis ORDER BY id DESC")
+    fun searchText(levels: List<String>, tag: String?, fromMillis: Long, toMillis: Long,
+                   match: String): PagingSource<Int, LogRecordBean>
+
+    // 新出现的堆栈，已存在时保留原有记录
+    @Insert(onConflict = OnConflictStrategy.IGNORE)
+    suspend fun insertStacks(stacks: List<LogStackBean>)
+
+    @Query("UPDATE log_stack SET occurrences = occurrences + :delta, last_seen = :lastSeen WHERE fingerprint = :fingerprint")
+    suspend fun addStackOccurrences(fingerprint: Long, delta: Long, lastSeen: Long)
+
+    @Query("SELECT * FROM log_stack WHERE fingerprint IN (:fingerprints)")
+    suspend fun getStacks(fingerprints: List<Long>): List<LogStackBean>
+
+    // 清理长时间未出现且已没有日志引用的堆栈，离线很久的设备上传时仍能带上完整堆栈
+    @Query("DELETE FROM log_stack WHERE last_seen < :before AND fingerprint NOT IN " +
+            "(SELECT stack_fingerprint FROM log_record WHERE stack_fingerprint IS NOT NULL)")
+    suspend fun deleteStacksBefore(before: Long): Int
+
+    // 执行返回单个整数的 PRAGMA，如 page_count
+    @RawQuery
+    suspend fun pragma(query: SupportSQLiteQuery): Long
 }
 
-@Database(entities = [LogRecordBean::class], version = 1)
+@Database(entities = [LogRecordBean::class, LogStackBean::class, LogRecordFts::class], version = 7)
 abstract class LogDatabase : RoomDatabase() {
     abstract fun logDao(): LogDao
 }
\ No newline at end of file
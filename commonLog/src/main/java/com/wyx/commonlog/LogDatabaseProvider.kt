@@ -0,0 +1,139 @@
+package com.wyx.commonlog
+
+import android.content.Context
+import android.os.SystemClock
+import androidx.room.Room
+import androidx.room.RoomDatabase
+import androidx.room.migration.Migration
+import androidx.sqlite.db.SupportSQLiteDatabase
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
+/**
+ * 进程内唯一的日志数据库
+ *
+ * UploadTree 与 LogUploadWorker 共用同一个实例，避免重复的连接池、重复的表结构校验以及同一文件上的多个写入方。
+ * 使用 WAL 模式 + synchronous=NORMAL，写事务统一在单线程的 [writeExecutor] 上执行
+ */
+object LogDatabaseProvider {
+
+    const val DB_NAME = "common_log.db"
+
+    /**
+     * 日志写事务专用的单线程执行器
+     */
+    val writeExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "CommonLog-DbWriter").apply { priority = Thread.MIN_PRIORITY }
+    }
+
+    @Volatile
+    private var instance: LogDatabase? = null
+
+    /**
+     * 首次打开数据库（含表结构校验）的耗时，未打开时为 -1
+     */
+    @Volatile
+    var openTimeMs: Long = -1
+        private set
+
+    fun get(context: Context): LogDatabase {
+        return instance ?: synchronized(this) {
+            instance ?: build(context.applicationContext).also { instance = it }
+        }
+    }
+
+    /**
+     * 在 IO 线程上提前打开数据库，并记录打开耗时
+     */
+    suspend fun open(context: Context): LogDatabase = withContext(Dispatchers.IO) {
+        val database = get(context)
+        synchronized(this@LogDatabaseProvider) {
+            if (openTimeMs < 0) {
+                val start = SystemClock.elapsedRealtime()
+                database.openHelper.writableDatabase
+                openTimeMs = SystemClock.elapsedRealtime() - start
+            }
+        }
+        database
+    }
+
+    private fun build(context: Context): LogDatabase =
+        Room.databaseBuilder(context, LogDatabase::class.java, DB_NAME)
+            .addMigrations(MIGRATION_1_2, MIGRATION_2_3, MIGRATION_3_4, MIGRATION_4_5, MIGRATION_5_6, MIGRATION_6_7)
+            .setJournalMode(RoomDatabase.JournalMode.WRITE_AHEAD_LOGGING)
+            .setTransactionExecutor(writeExecutor)
+            .addCallback(object : RoomDatabase.Callback() {
+                override fun onOpen(db: SupportSQLiteDatabase) {
+                    // WAL 模式下 NORMAL 只在检查点时 fsync，崩溃不会损坏数据库，最多丢失最近的事务
+                    db.query("PRAGMA synchronous = NORMAL").close()
+                }
+            })
+            .build()
+
+    /**
+     * 1 -> 2：时间戳由格式化字符串改为毫秒数，格式化推迟到上传时进行。
+     * 旧的 timestamp 按设备本地时区格式化，末尾的 'Z' 只是字面量，并不是 UTC；
+     * 迁移时用 strftime 的 'utc' 修饰符按设备时区（含夏令时）换算成 UTC 毫秒数
+     */
+    private val MIGRATION_1_2 = object : Migration(1, 2) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("CREATE TABLE IF NOT EXISTS `log_record_new` (`id` INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, `time_millis` INTEGER NOT NULL, `level` TEXT NOT NULL, `tag` TEXT, `message` TEXT NOT NULL)")
+            db.execSQL("INSERT INTO `log_record_new` (`id`, `time_millis`, `level`, `tag`, `message`) SELECT `id`, CAST(strftime('%s', substr(`timestamp`, 1, 19), 'utc') AS INTEGER) * 1000 + CAST(substr(`timestamp`, 21, 3) AS INTEGER), `level`, `tag`, `message` FROM `log_record`")
+            db.execSQL("DROP TABLE `log_record`")
+            db.execSQL("ALTER TABLE `log_record_new` RENAME TO `log_record`")
+        }
+    }
+
+    /**
+     * 2 -> 3：增加重复日志合并计数
+     */
+    private val MIGRATION_2_3 = object : Migration(2, 3) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `log_record` ADD COLUMN `repeat_count` INTEGER NOT NULL DEFAULT 1")
+        }
+    }
+
+    /**
+     * 3 -> 4：增加结构化字段
+     */
+    private val MIGRATION_3_4 = object : Migration(3, 4) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `log_record` ADD COLUMN `fields` BLOB")
+        }
+    }
+
+    /**
+     * 4 -> 5：按级别淘汰日志使用的 (level, id) 索引
+     */
+    private val MIGRATION_4_5 = object : Migration(4, 5) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS `index_log_record_level_id` ON `log_record` (`level`, `id`)")
+        }
+    }
+
+    /**
+     * 5 -> 6：异常堆栈去重保存到 log_stack 表，日志记录只保存指纹
+     */
+    private val MIGRATION_5_6 = object : Migration(5, 6) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("ALTER TABLE `log_record` ADD COLUMN `stack_fingerprint` INTEGER")
+            db.execSQL("CREATE TABLE IF NOT EXISTS `log_stack` (`fingerprint` INTEGER NOT NULL, `stack` TEXT NOT NULL, `occurrences` INTEGER NOT NULL, `last_seen` INTEGER NOT NULL, PRIMARY KEY(`fingerprint`))")
+        }
+    }
+
+    /**
+     * 6 -> 7：tag、message 的全文索引，触发器与 Room 为外部内容 FTS 表生成的一致，最后根据已有数据重建索引
+     */
+    private val MIGRATION_6_7 = object : Migration(6, 7) {
+        override fun migrate(db: SupportSQLiteDatabase) {
+            db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS `log_record_fts` USING FTS4(`tag` TEXT, `message` TEXT NOT NULL, content=`log_record`)")
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_log_record_fts_BEFORE_UPDATE BEFORE UPDATE ON `log_record` BEGIN DELETE FROM `log_record_fts` WHERE `docid`=OLD.`rowid`; END")
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_log_record_fts_BEFORE_DELETE BEFORE DELETE ON `log_record` BEGIN DELETE FROM `log_record_fts` WHERE `docid`=OLD.`rowid`; END")
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_log_record_fts_AFTER_UPDATE AFTER UPDATE ON `log_record` BEGIN INSERT INTO `log_record_fts`(`docid`, `tag`, `message`) VALUES (NEW.`rowid`, NEW.`tag`, NEW.`message`); END")
+            db.execSQL("CREATE TRIGGER IF NOT EXISTS room_fts_content_sync_log_record_fts_AFTER_INSERT AFTER INSERT ON `log_record` BEGIN INSERT INTO `log_record_fts`(`docid`, `tag`, `message`) VALUES (NEW.`rowid`, NEW.`tag`, NEW.`message`); END")
+            db.execSQL("INSERT INTO `log_record_fts`(`log_record_fts`) VALUES('rebuild')")
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.wyx.commonlog
+
+import android.util.Log
+
+/**
+ * 缓冲区中可复用的日志槽位
+ *
+ * 记录日志时只把时间戳、级别和引用拷贝进预先分配好的槽位，
+ * 转换为 [LogRecordBean]、格式化时间等工作都推迟到消费线程上进行
+ */
+class LogEvent {
+    var timeMillis = 0L
+    var priority = 0
+    var tag: String? = null
+    var message: String = ""
+    var fields: ByteArray? = null
+    var stackFingerprint = 0L
+
+    fun set(timeMillis: Long, priority: Int, tag: String?, message: String, fields: ByteArray?, stackFingerprint: Long) {
+        this.timeMillis = timeMillis
+        this.priority = priority
+        this.tag = tag
+        this.message = message
+        this.fields = fields
+        this.stackFingerprint = stackFingerprint
+    }
+
+    fun toRecord() = LogRecordBean(
+        timeMillis = timeMillis,
+        level = priorityName(priority),
+        tag = tag ?: DEFAULT_TAG,
+        message = message,
+        fields = fields,
+        stackFingerprint = stackFingerprint.takeIf { it != 0L }
+    )
+
+    fun clear() {
+        tag = null
+        message = ""
+        fields = null
+        stackFingerprint = 0L
+    }
+
+    companion object {
+        const val DEFAULT_TAG = "App"
+
+        fun priorityName(priority: Int) = when (priority) {
+            Log.ERROR -> "ERROR"
+            Log.WARN -> "WARN"
+            Log.INFO -> "INFO"
+            Log.DEBUG -> "DEBUG"
+            else -> "VERBOSE"
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.wyx.commonlog
+
+import com.google.gson.stream.JsonWriter
+import java.io.StringWriter
+
+/**
+ * 结构化日志字段，直接以紧凑的二进制 TLV 编码写入字节数组，基本类型不装箱
+ *
+ * 单个字段格式：key 长度(varint) | key(UTF-8) | 类型(1 字节) | 值；
+ * 整数以 zigzag varint 写入，浮点数 8 字节，布尔值只占类型字节，字符串为长度(varint) + UTF-8。
+ * 只在上传时才转换为 JSON
+ */
+class LogFields {
+
+    private var bytes = ByteArray(64)
+    private var size = 0
+
+    fun put(key: String, value: Long) {
+        putKey(key, TYPE_LONG)
+        writeVarint((value shl 1) xor (value shr 63))
+    }
+
+    fun put(key: String, value: Int) = put(key, value.toLong())
+
+    fun put(key: String, value: Double) {
+        putKey(key, TYPE_DOUBLE)
+        val raw = java.lang.Double.doubleToRawLongBits(value)
+        ensureCapacity(8)
+        for (i in 0 until 8) {
+            bytes[size++] = (raw ushr (i * 8)).toByte()
+        }
+    }
+
+    fun put(key: String, value: Boolean) {
+        putKey(key, if (value) TYPE_TRUE else TYPE_FALSE)
+    }
+
+    fun put(key: String, value: String?) {
+        if (value == null) {
+            putKey(key, TYPE_NULL)
+            return
+        }
+        putKey(key, TYPE_STRING)
+        writeString(value)
+    }
+
+    fun toByteArray(): ByteArray = bytes.copyOf(size)
+
+    private fun putKey(key: String, type: Int) {
+        writeString(key)
+        ensureCapacity(1)
+        bytes[size++] = type.toByte()
+    }
+
+    private fun writeString(value: String) {
+        val encoded = value.toByteArray(Charsets.UTF_8)
+        writeVarint(encoded.size.toLong())
+        ensureCapacity(encoded.size)
+        System.arraycopy(encoded, 0, bytes, size, encoded.size)
+        size += encoded.size
+    }
+
+    private fun writeVarint(value: Long) {
+        ensureCapacity(10)
+        var v = value
+        while (v and 0x7FL.inv() != 0L) {
+            bytes[size++] = ((v and 0x7F) or 0x80).toByte()
+            v = v ushr 7
+        }
+        bytes[size++] = v.toByte()
+    }
+
+    private fun ensureCapacity(extra: Int) {
+        if (size + extra > bytes.size) {
+            bytes = bytes.copyOf(maxOf(bytes.size * 2, size + extra))
+        }
+    }
+
+    companion object {
+        private const val TYPE_LONG = 0
+        private const val TYPE_DOUBLE = 1
+        private const val TYPE_TRUE = 2
+        private const val TYPE_FALSE = 3
+        private const val TYPE_STRING = 4
+        private const val TYPE_NULL = 5
+
+        /**
+         * 把编码后的字段写成 JSON 对象；NaN、Infinity 不是合法的 JSON 数字，ES 也不接受，这类字段跳过不写
+         */
+        fun writeJson(encoded: ByteArray, writer: JsonWriter) {
+            writer.beginObject()
+            Reader(encoded).forEach { key, type, reader ->
+                if (type == TYPE_DOUBLE) {
+                    val value = reader.readDouble()
+                    if (value.isFinite()) writer.name(key).value(value)
+                    return@forEach
+                }
+                writer.name(key)
+                when (type) {
+                    TYPE_LONG -> writer.value(reader.readLong())
+                    TYPE_TRUE -> writer.value(true)
+                    TYPE_FALSE -> writer.value(false)
+                    TYPE_STRING -> writer.value(reader.readString())
+                    else -> writer.nullValue()
+                }
+            }
+            writer.endObject()
+        }
+
+        /**
+         * 转换为 JSON 文本，用于 Logcat 输出
+         */
+        fun toJson(encoded: ByteArray): String {
+            val out = StringWriter()
+            writeJson(encoded, JsonWriter(out).apply { isLenient = true })
+            return out.toString()
+        }
+    }
+
+    private class Reader(private val bytes: ByteArray) {
+        private var position = 0
+
+        fun forEach(action: (key: String, type: Int, reader: Reader) -> Unit) {
+            while (position < bytes.size) {
+                val key = readString()
+                val type = bytes[position++].toInt()
+                action(key, type, this)
+            }
+        }
+
+        fun readLong(): Long {
+            val raw = readVarint()
+            return (raw ushr 1) xor -(raw and 1)
+        }
+
+        fun readDouble(): Double {
+            var raw = 0L
+            for (i in 0 until 8) {
+                raw = raw or ((bytes[position++].toLong() and 0xFF) shl (i * 8))
+            }
+            return java.lang.Double.longBitsToDouble(raw)
+        }
+
+        fun readString(): String {
+            val length = readVarint().toInt()
+            val value = String(bytes, position, length, Charsets.UTF_8)
+            position += length
+            return value
+        }
+
+        private fun readVarint(): Long {
+            var result = 0L
+            var shift = 0
+            while (true) {
+                val b = bytes[position++].toInt()
+                result = result or ((b and 0x7F).toLong() shl shift)
+                if (b and 0x80 == 0) return result
+                shift += 7
+            }
+        }
+    }
+}
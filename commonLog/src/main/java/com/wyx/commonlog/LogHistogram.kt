@@ -0,0 +1,27 @@
+package com.wyx.commonlog
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 固定分桶的直方图，[bounds] 为各桶的上界（含），超过最后一个上界的值计入最后一个桶
+ */
+internal class LogHistogram(private val bounds: LongArray) {
+
+    private val counts = AtomicLongArray(bounds.size + 1)
+
+    fun record(value: Long) {
+        var index = bounds.binarySearch(value)
+        if (index < 0) index = -index - 1
+        counts.incrementAndGet(index)
+    }
+
+    /**
+     * 以桶名为键的计数，桶名为 "le_上界"，最后一个桶为 "gt_最大上界"
+     */
+    fun snapshot(): Map<String, Long> {
+        val result = LinkedHashMap<String, Long>(bounds.size + 1)
+        bounds.forEachIndexed { i, bound -> result["le_$bound"] = counts.get(i) }
+        result["gt_${bounds.last()}"] = counts.get(bounds.size)
+        return result
+    }
+}
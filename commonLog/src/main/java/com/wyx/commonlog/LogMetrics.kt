@@ -0,0 +1,153 @@
+package com.wyx.commonlog
+
+import android.util.Log
+
+/**
+ * 日志链路的统计计数
+ *
+ * 热路径上的计数使用 [StripedCounter]，多线程写入时不争用同一个原子变量
+ */
+object LogMetrics {
+
+    private val LEVELS = arrayOf("VERBOSE", "DEBUG", "INFO", "WARN", "ERROR")
+
+    private val enqueued = Array(LEVELS.size) { StripedCounter() }
+    private val dropped = Array(LEVELS.size) { StripedCounter() }
+    private val flushed = StripedCounter()
+    private val rateLimited = StripedCounter()
+    private val evicted = StripedCounter()
+    private val spilled = StripedCounter()
+    private val uploadBatches = StripedCounter()
+    private val uploadFailures = StripedCounter()
+    private val uploadRejected = StripedCounter()
+    private val batchSizes = LogHistogram(longArrayOf(10, 50, 100, 200, 500, 1000))
+    private val uploadLatency = LogHistogram(longArrayOf(50, 100, 250, 500, 1000, 2500, 5000, 10_000))
+
+    /** 写入缓冲区的日志数 */
+    val enqueuedCount: Long
+        get() = enqueued.sumOf { it.sum() }
+
+    /** 因缓冲区满被丢弃的日志数 */
+    val droppedCount: Long
+        get() = dropped.sumOf { it.sum() }
+
+    /** 从缓冲区取出交给上传的日志数 */
+    val flushedCount: Long
+        get() = flushed.sum()
+
+    /** 被限流丢弃的日志数 */
+    val rateLimitedCount: Long
+        get() = rateLimited.sum()
+
+    /** 持久化存储超出配额被淘汰的日志数 */
+    val evictedCount: Long
+        get() = evicted.sum()
+
+    /** 混合模式下转存到持久化存储的日志数 */
+    val spilledCount: Long
+        get() = spilled.sum()
+
+    /**
+     * 当前各项计数的快照，[bufferDepth] 和 [backlogRows] 由调用方提供
+     */
+    fun snapshot(bufferDepth: Int = 0, backlogRows: Long = 0): LogMetricsSnapshot = LogMetricsSnapshot(
+        enqueuedByLevel = LEVELS.indices.associate { LEVELS[it] to enqueued[it].sum() },
+        droppedByLevel = LEVELS.indices.associate { LEVELS[it] to dropped[it].sum() },
+        flushed = flushed.sum(),
+        rateLimited = rateLimited.sum(),
+        evicted = evicted.sum(),
+        spilled = spilled.sum(),
+        uploadBatches = uploadBatches.sum(),
+        uploadFailures = uploadFailures.sum(),
+        uploadRejected = uploadRejected.sum(),
+        batchSizeHistogram = batchSizes.snapshot(),
+        uploadLatencyHistogram = uploadLatency.snapshot(),
+        bufferDepth = bufferDepth,
+        backlogRows = backlogRows
+    )
+
+    internal fun onEnqueued(priority: Int) {
+        enqueued[levelIndex(priority)].increment()
+    }
+
+    internal fun onDropped(priority: Int) {
+        dropped[levelIndex(priority)].increment()
+    }
+
+    internal fun onDropped(records: List<LogRecordBean>) {
+        records.forEach { record ->
+            dropped[LEVELS.indexOf(record.level).coerceAtLeast(0)].increment()
+        }
+    }
+
+    internal fun onFlushed(count: Int) {
+        flushed.add(count.toLong())
+    }
+
+    internal fun onRateLimited() {
+        rateLimited.increment()
+    }
+
+    internal fun onEvicted(count: Int) {
+        evicted.add(count.toLong())
+    }
+
+    internal fun onSpilled(count: Int) {
+        spilled.add(count.toLong())
+    }
+
+    /**
+     * 一次 _bulk 请求完成，[rejected] 为服务端拒绝需要重试的条数
+     */
+    internal fun onUploaded(batchSize: Int, latencyMs: Long, successful: Boolean, rejected: Int) {
+        uploadBatches.increment()
+        batchSizes.record(batchSize.toLong())
+        uploadLatency.record(latencyMs)
+        if (!successful) uploadFailures.increment()
+        uploadRejected.add(rejected.toLong())
+    }
+
+    private fun levelIndex(priority: Int) = (priority - Log.VERBOSE).coerceIn(0, LEVELS.size - 1)
+}
+
+/**
+ * 日志链路统计快照
+ */
+data class LogMetricsSnapshot(
+    val enqueuedByLevel: Map<String, Long>,
+    val droppedByLevel: Map<String, Long>,
+    val flushed: Long,
+    val rateLimited: Long,
+    val evicted: Long,
+    val spilled: Long,
+    val uploadBatches: Long,
+    val uploadFailures: Long,
+    val uploadRejected: Long,
+    val batchSizeHistogram: Map<String, Long>,
+    val uploadLatencyHistogram: Map<String, Long>,
+    // 内存缓冲区及写入队列中等待处理的日志数
+    val bufferDepth: Int,
+    // 持久化存储中等待上传的日志数
+    val backlogRows: Long
+) {
+    /**
+     * 展开为扁平的键值对，可直接作为 MonitorManager.trendsData 的 info 上报
+     */
+    fun toMap(): Map<String, Any> {
+        val result = LinkedHashMap<String, Any>()
+        enqueuedByLevel.forEach { (level, count) -> result["enqueued_$level"] = count }
+        droppedByLevel.forEach { (level, count) -> result["dropped_$level"] = count }
+        result["flushed"] = flushed
+        result["rate_limited"] = rateLimited
+        result["evicted"] = evicted
+        result["spilled"] = spilled
+        result["upload_batches"] = uploadBatches
+        result["upload_failures"] = uploadFailures
+        result["upload_rejected"] = uploadRejected
+        batchSizeHistogram.forEach { (bucket, count) -> result["batch_size_$bucket"] = count }
+        uploadLatencyHistogram.forEach { (bucket, count) -> result["upload_latency_ms_$bucket"] = count }
+        result["buffer_depth"] = bufferDepth
+        result["backlog_rows"] = backlogRows
+        return result
+    }
+}
@@ -0,0 +1,24 @@
+package com.wyx.commonlog
+
+/**
+ * UploadTree 的日志处理模式
+ */
+enum class LogMode {
+    /** 内存缓冲，定时批量上传 */
+    MEMORY,
+
+    /** 全部日志持久化，由 LogUploadWorker 上传 */
+    PERSISTENCE,
+
+    /**
+     * 飞行记录仪模式：WARN 以下的日志只保留最近 N 条在内存环形缓冲中，WARN 及以上立即持久化；
+     * 出现 ERROR 时把环形缓冲中的日志一并持久化，作为该错误的上下文
+     */
+    FLIGHT_RECORDER,
+
+    /**
+     * 混合模式：平时与内存模式相同，直接上传；上传失败或缓冲区超过高水位时日志转存到持久化存储，
+     * 由 LogUploadWorker 补传，网络正常时大部分日志不写磁盘
+     */
+    HYBRID
+}
@@ -0,0 +1,49 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import androidx.paging.PagingSource
+
+/**
+ * 本地日志检索条件
+ *
+ * [minPriority] 为最低级别，[tag] 为空表示不限，[fromMillis]..[toMillis] 为时间范围，
+ * [term] 按空白拆分为多个词，每个词前缀匹配 tag 或 message，多个词同时满足
+ */
+data class LogQuery(val minPriority: Int = Log.VERBOSE,
+                    val tag: String? = null,
+                    val fromMillis: Long = 0,
+                    val toMillis: Long = Long.MAX_VALUE,
+                    val term: String? = null) {
+
+    fun levels(): List<String> =
+        LEVELS.filter { it.first >= minPriority }.map { it.second }
+
+    /**
+     * 转换为 FTS MATCH 表达式，去掉用户输入中的引号，避免语法错误
+     */
+    fun matchExpression(): String? {
+        val words = term?.split(WHITESPACE)?.map { it.replace("\"", "") }?.filter { it.isNotEmpty() }
+        if (words.isNullOrEmpty()) return null
+        return words.joinToString(" ") { "\"$it*\"" }
+    }
+
+    fun pagingSource(dao: LogDao): PagingSource<Int, LogRecordBean> {
+        val match = matchExpression()
+        return if (match == null) {
+            dao.search(levels(), tag, fromMillis, toMillis)
+        } else {
+            dao.searchText(levels(), tag, fromMillis, toMillis, match)
+        }
+    }
+
+    companion object {
+        private val WHITESPACE = Regex("\\s+")
+        private val LEVELS = listOf(
+            Log.VERBOSE to "VERBOSE",
+            Log.DEBUG to "DEBUG",
+            Log.INFO to "INFO",
+            Log.WARN to "WARN",
+            Log.ERROR to "ERROR"
+        )
+    }
+}
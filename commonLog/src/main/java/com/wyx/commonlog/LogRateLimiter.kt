@@ -0,0 +1,42 @@
+package com.wyx.commonlog
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 按 tag + 级别限流的令牌桶（GCRA 实现）
+ *
+ * 每个 tag + 级别哈希到一个分段，分段只保存一个“理论到达时间”，通过 CAS 更新，
+ * 记录日志的热路径上没有锁也没有对象分配；不同 tag 哈希冲突时会共用同一个桶
+ */
+class LogRateLimiter(
+    permitsPerSecond: Int,
+    burst: Int = permitsPerSecond,
+    stripes: Int = 256
+) {
+
+    init {
+        require(stripes > 0 && stripes and (stripes - 1) == 0) { "stripes must be a power of two" }
+    }
+
+    private val intervalNanos = 1_000_000_000L / permitsPerSecond
+    private val toleranceNanos = intervalNanos * (maxOf(burst, 1) - 1)
+    private val mask = stripes - 1
+    private val arrivals = AtomicLongArray(mask + 1)
+
+    /**
+     * 返回 false 表示该日志应被限流丢弃
+     */
+    fun tryAcquire(tag: String?, priority: Int, nowNanos: Long = System.nanoTime()): Boolean {
+        val index = ((tag?.hashCode() ?: 0) * 31 + priority).let { it xor (it ushr 16) } and mask
+        while (true) {
+            val stored = arrivals.get(index)
+            val tat = if (stored == 0L) nowNanos else maxOf(stored, nowNanos)
+            if (tat - nowNanos > toleranceNanos) {
+                return false
+            }
+            if (arrivals.compareAndSet(index, stored, tat + intervalNanos)) {
+                return true
+            }
+        }
+    }
+}
@@ -1,12 +1,19 @@
 package com.wyx.commonlog
 
+import androidx.room.ColumnInfo
 import androidx.room.Entity
+import androidx.room.Index
 import androidx.room.PrimaryKey
-import com.google.gson.annotations.SerializedName
 
-@Entity(tableName = "log_record")
+@Entity(tableName = "log_record", indices = [Index(value = ["level", "id"])])
 data class LogRecordBean(@PrimaryKey(autoGenerate = true) val id: Long = 0,
-                         @SerializedName("@timestamp") val timestamp: String,
+                         @ColumnInfo(name = "time_millis") val timeMillis: Long,
                          val level: String,
                          val tag: String?,
-                         val message: String)
+                         val message: String,
+                         // 合并的重复日志条数，见 LogCollapser
+                         @ColumnInfo(name = "repeat_count", defaultValue = "1") val repeatCount: Int = 1,
+                         // 结构化字段的 TLV 编码，见 LogFields
+                         @ColumnInfo(typeAffinity = ColumnInfo.BLOB) val fields: ByteArray? = null,
+                         // 异常堆栈指纹，堆栈文本保存在 log_stack 表中
+                         @ColumnInfo(name = "stack_fingerprint") val stackFingerprint: Long? = null)
@@ -0,0 +1,133 @@
+package com.wyx.commonlog
+
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+
+/**
+ * 日志记录的定长前缀二进制编码
+ *
+ * 单条记录格式：length(int) | id(long) | payload | crc32(int)，
+ * 其中 length 为 payload 长度，crc32 覆盖 id 与 payload；length 为 0 表示后面没有记录。
+ * payload 依次为 timeMillis(long)、repeatCount(int)、stackFingerprint(long，0 表示没有)、level、tag、message、fields，字符串和字节数组以 int 长度 + 内容写入，为空时长度为 -1
+ */
+internal class LogRecordCodec {
+
+    private var scratch = ByteBuffer.allocate(1024)
+    private val crc = CRC32()
+
+    /**
+     * 将 [record] 以 [id] 编码，返回的 buffer 在下一次调用前有效，position 为 0，limit 为记录总长度
+     */
+    fun encode(id: Long, record: LogRecordBean): ByteBuffer {
+        val level = record.level.toByteArray(Charsets.UTF_8)
+        val tag = record.tag?.toByteArray(Charsets.UTF_8)
+        val message = record.message.toByteArray(Charsets.UTF_8)
+        val fields = record.fields
+        val payloadSize = 8 + 4 + 8 + 4 * 4 + level.size + (tag?.size ?: 0) + message.size + (fields?.size ?: 0)
+        val total = HEADER_SIZE + payloadSize + TRAILER_SIZE
+
+        if (scratch.capacity() < total) {
+            scratch = ByteBuffer.allocate(Integer.highestOneBit(total) shl 1)
+        }
+        val buffer = scratch
+        buffer.clear()
+        buffer.putInt(payloadSize)
+        buffer.putLong(id)
+        buffer.putLong(record.timeMillis)
+        buffer.putInt(record.repeatCount)
+        buffer.putLong(record.stackFingerprint ?: 0L)
+        putBytes(buffer, level)
+        putBytes(buffer, tag)
+        putBytes(buffer, message)
+        putBytes(buffer, fields)
+        crc.reset()
+        crc.update(buffer.array(), 4, 8 + payloadSize)
+        buffer.putInt(crc.value.toInt())
+        buffer.flip()
+        return buffer
+    }
+
+    /**
+     * 从 [source] 当前位置读取一条记录，数据不完整或校验失败时返回 null 且不移动 position
+     */
+    fun decode(source: ByteBuffer): LogRecordBean? {
+        val start = source.position()
+        if (source.remaining() < HEADER_SIZE) return null
+        val payloadSize = source.getInt(start)
+        if (payloadSize <= 0 || payloadSize > source.remaining() - HEADER_SIZE - TRAILER_SIZE) return null
+
+        val bytes = ByteArray(8 + payloadSize)
+        source.position(start + 4)
+        source.get(bytes)
+        val expected = source.getInt()
+        crc.reset()
+        crc.update(bytes, 0, bytes.size)
+        if (crc.value.toInt() != expected) {
+            source.position(start)
+            return null
+        }
+
+        val payload = ByteBuffer.wrap(bytes)
+        val id = payload.getLong()
+        val timeMillis = payload.getLong()
+        val repeatCount = payload.getInt()
+        val stackFingerprint = payload.getLong()
+        return LogRecordBean(
+            id = id,
+            timeMillis = timeMillis,
+            level = getString(payload)!!,
+            tag = getString(payload),
+            message = getString(payload)!!,
+            repeatCount = repeatCount,
+            fields = getBytes(payload),
+            stackFingerprint = stackFingerprint.takeIf { it != 0L }
+        )
+    }
+
+    /**
+     * 读取 [source] 当前位置记录的 id，不校验、不解码也不移动 position，没有完整记录时返回 -1
+     */
+    fun peekId(source: ByteBuffer): Long {
+        val start = source.position()
+        if (source.remaining() < HEADER_SIZE) return -1
+        val payloadSize = source.getInt(start)
+        if (payloadSize <= 0 || payloadSize > source.remaining() - HEADER_SIZE - TRAILER_SIZE) return -1
+        return source.getLong(start + 4)
+    }
+
+    /**
+     * 跳过 [source] 当前位置的一条记录，只读取长度，调用前需用 [peekId] 确认记录完整
+     */
+    fun skip(source: ByteBuffer) {
+        val start = source.position()
+        source.position(start + HEADER_SIZE + source.getInt(start) + TRAILER_SIZE)
+    }
+
+    private fun putBytes(buffer: ByteBuffer, bytes: ByteArray?) {
+        if (bytes == null) {
+            buffer.putInt(-1)
+        } else {
+            buffer.putInt(bytes.size)
+            buffer.put(bytes)
+        }
+    }
+
+    private fun getString(buffer: ByteBuffer): String? {
+        val size = buffer.getInt()
+        if (size < 0) return null
+        val value = String(buffer.array(), buffer.position(), size, Charsets.UTF_8)
+        buffer.position(buffer.position() + size)
+        return value
+    }
+
+    private fun getBytes(buffer: ByteBuffer): ByteArray? {
+        val size = buffer.getInt()
+        if (size < 0) return null
+        return ByteArray(size).also { buffer.get(it) }
+    }
+
+    companion object {
+        const val HEADER_SIZE = 4 + 8
+        const val TRAILER_SIZE = 4
+    }
+}
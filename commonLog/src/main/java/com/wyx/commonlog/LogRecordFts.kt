@@ -0,0 +1,16 @@
+package com.wyx.commonlog
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.Fts4
+import androidx.room.PrimaryKey
+
+/**
+ * log_record 的全文索引，外部内容表形式不重复保存文本；
+ * Room 生成的触发器在插入、删除 log_record 的同一事务中维护索引
+ */
+@Fts4(contentEntity = LogRecordBean::class)
+@Entity(tableName = "log_record_fts")
+data class LogRecordFts(@PrimaryKey @ColumnInfo(name = "rowid") val rowId: Long,
+                        val tag: String?,
+                        val message: String)
@@ -0,0 +1,266 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * 缓冲区满时的处理策略
+ */
+enum class OverflowPolicy {
+    /** 丢弃最早的一条 */
+    DROP_OLDEST,
+
+    /** 丢弃新写入的一条 */
+    DROP_NEWEST,
+
+    /** 丢弃低于 [LogRingBuffer] dropBelowPriority 的日志，优先保留高级别日志 */
+    DROP_BELOW_LEVEL,
+
+    /** 阻塞写入线程，超时后丢弃新写入的一条 */
+    BLOCK
+}
+
+/**
+ * 有界环形日志缓冲区
+ *
+ * 槽位是预先分配的 [LogEvent]，写入时只做字段拷贝，不产生新对象；
+ * 上传端变慢或不可用时，缓冲区按 [policy] 丢弃日志而不是无限增长，
+ * 写入、丢弃、取出的数量记录在 [LogMetrics] 中
+ */
+class LogRingBuffer(
+    private val capacity: Int,
+    private val policy: OverflowPolicy = OverflowPolicy.DROP_OLDEST,
+    private val dropBelowPriority: Int = Log.WARN,
+    private val blockTimeoutMs: Long = 50,
+    private val trackMetrics: Boolean = true
+) {
+
+    private val slots = Array(capacity) { LogEvent() }
+    private var head = 0
+    private var count = 0
+    private var closed = false
+
+    // 消费端等待的批量大小，达到后提前唤醒
+    private var batchThreshold = Int.MAX_VALUE
+
+    // 要求消费端不再等待凑满批次，立即取出
+    private var flushRequested = false
+
+    private val lock = ReentrantLock()
+    private val notFull = lock.newCondition()
+    private val batchReady = lock.newCondition()
+
+    val size: Int
+        get() = lock.withLock { count }
+
+    /**
+     * 写入一条日志，返回 false 表示该日志被丢弃；[stackFingerprint] 为 0 表示没有异常堆栈
+     */
+    fun offer(timeMillis: Long, priority: Int, tag: String?, message: String,
+              fields: ByteArray? = null, stackFingerprint: Long = 0L): Boolean {
+        lock.withLock {
+            if (closed || count == capacity && !makeRoom(priority)) {
+                if (trackMetrics) LogMetrics.onDropped(priority)
+                return false
+            }
+            slots[(head + count) % capacity].set(timeMillis, priority, tag, message, fields, stackFingerprint)
+            count++
+            if (trackMetrics) LogMetrics.onEnqueued(priority)
+            if (count >= batchThreshold) {
+                batchReady.signal()
+            }
+            return true
+        }
+    }
+
+    /**
+     * 缓冲区中的日志少于 [limit] 条时写入，否则不写入也不计入丢弃，返回 false 由调用方另行处理
+     */
+    fun offerIfBelow(limit: Int, timeMillis: Long, priority: Int, tag: String?, message: String,
+                     fields: ByteArray? = null, stackFingerprint: Long = 0L): Boolean {
+        lock.withLock {
+            if (count >= limit) return false
+            return offer(timeMillis, priority, tag, message, fields, stackFingerprint)
+        }
+    }
+
+    /**
+     * 等待直到缓冲区中至少有 [max] 条日志或超过 [timeoutMs]，然后最多取出 [max] 条转换后放入 [out]
+     */
+    fun drainTo(out: MutableList<LogRecordBean>, max: Int, timeoutMs: Long): Int {
+        lock.withLock {
+            awaitCount(max, TimeUnit.MILLISECONDS.toNanos(timeoutMs))
+            return drainLocked(out, max)
+        }
+    }
+
+    /**
+     * 最多等待 [idleTimeoutMs] 直到有日志写入，再最多等待 [lingerMs] 凑满 [max] 条后取出；
+     * 缓冲区关闭且为空或等待超时时返回 0，可通过 [isClosed] 区分
+     */
+    fun awaitDrainTo(out: MutableList<LogRecordBean>, max: Int, lingerMs: Long,
+                     idleTimeoutMs: Long = Long.MAX_VALUE): Int {
+        lock.withLock {
+            val deadline = if (idleTimeoutMs == Long.MAX_VALUE) Long.MAX_VALUE
+            else System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs)
+            while (count == 0 && !closed) {
+                if (deadline == Long.MAX_VALUE) {
+                    awaitCount(1, Long.MAX_VALUE)
+                    continue
+                }
+                val remaining = deadline - System.nanoTime()
+                if (remaining <= 0) return 0
+                awaitCount(1, remaining)
+            }
+            awaitCount(max, TimeUnit.MILLISECONDS.toNanos(lingerMs))
+            return drainLocked(out, max)
+        }
+    }
+
+    /**
+     * 在 [timeoutMs] 内拿到锁后按顺序遍历缓冲区中的日志但不取出，[action] 返回 false 时停止；
+     * 用于崩溃时转储，拿不到锁时返回 false
+     */
+    fun snapshot(timeoutMs: Long, action: (LogEvent) -> Boolean): Boolean {
+        if (!lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) return false
+        try {
+            for (i in 0 until count) {
+                if (!action(slots[(head + i) % capacity])) break
+            }
+            return true
+        } finally {
+            lock.unlock()
+        }
+    }
+
+    /**
+     * 是否已经 [close]
+     */
+    val isClosed: Boolean
+        get() = lock.withLock { closed }
+
+    /**
+     * 关闭后不再接受写入，等待中的消费端会被唤醒
+     */
+    fun close() {
+        lock.withLock {
+            closed = true
+            batchReady.signalAll()
+            notFull.signalAll()
+        }
+    }
+
+    /**
+     * 唤醒正在等待凑满批次的消费端，立即取出当前已有的日志
+     */
+    fun requestFlush() {
+        lock.withLock {
+            flushRequested = true
+            batchReady.signalAll()
+        }
+    }
+
+    private fun awaitCount(target: Int, timeoutNanos: Long) {
+        var nanos = timeoutNanos
+        batchThreshold = target
+        try {
+            while (count < target && nanos > 0 && !closed && !flushRequested) {
+                nanos = batchReady.awaitNanos(nanos)
+            }
+        } finally {
+            batchThreshold = Int.MAX_VALUE
+            flushRequested = false
+        }
+    }
+
+    private fun drainLocked(out: MutableList<LogRecordBean>, max: Int): Int {
+        val n = minOf(count, max)
+        repeat(n) {
+            val slot = slots[head]
+            out.add(slot.toRecord())
+            slot.clear()
+            head = (head + 1) % capacity
+        }
+        count -= n
+        if (n > 0) {
+            if (trackMetrics) LogMetrics.onFlushed(n)
+            notFull.signalAll()
+        }
+        return n
+    }
+
+    /**
+     * 把全部日志按顺序转移到 [target]，不生成中间对象，返回转移条数
+     */
+    fun transferTo(target: LogRingBuffer): Int {
+        lock.withLock {
+            val n = count
+            repeat(n) {
+                val slot = slots[head]
+                target.offer(slot.timeMillis, slot.priority, slot.tag, slot.message, slot.fields, slot.stackFingerprint)
+                slot.clear()
+                head = (head + 1) % capacity
+            }
+            count = 0
+            if (n > 0) notFull.signalAll()
+            return n
+        }
+    }
+
+    /**
+     * 缓冲区已满时按策略腾出空间，返回 false 表示应丢弃新写入的日志
+     */
+    private fun makeRoom(priority: Int): Boolean {
+        val index = when (policy) {
+            OverflowPolicy.DROP_OLDEST -> 0
+            OverflowPolicy.DROP_NEWEST -> return false
+            OverflowPolicy.DROP_BELOW_LEVEL -> {
+                if (priority < dropBelowPriority) return false
+                var index = 0
+                for (i in 0 until count) {
+                    if (slots[(head + i) % capacity].priority < dropBelowPriority) {
+                        index = i
+                        break
+                    }
+                }
+                index
+            }
+            OverflowPolicy.BLOCK -> {
+                var nanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMs)
+                while (count == capacity) {
+                    if (nanos <= 0 || closed) return false
+                    nanos = notFull.awaitNanos(nanos)
+                }
+                return true
+            }
+        }
+        if (trackMetrics) LogMetrics.onDropped(slots[(head + index) % capacity].priority)
+        if (index == 0) removeHead() else removeAt(index)
+        return true
+    }
+
+    /**
+     * 丢弃最早的一条：只移动 head，槽位随后被新写入的日志复用
+     */
+    private fun removeHead() {
+        slots[head].clear()
+        head = (head + 1) % capacity
+        count--
+    }
+
+    /**
+     * 移除第 [index] 条（相对 head），其后的槽位依次前移，被移除的槽位放到末尾复用；
+     * 只有 DROP_BELOW_LEVEL 丢弃中间的日志时需要
+     */
+    private fun removeAt(index: Int) {
+        val removed = slots[(head + index) % capacity]
+        for (i in index until count - 1) {
+            slots[(head + i) % capacity] = slots[(head + i + 1) % capacity]
+        }
+        removed.clear()
+        slots[(head + count - 1) % capacity] = removed
+        count--
+    }
+}
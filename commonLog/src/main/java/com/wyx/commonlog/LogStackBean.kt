@@ -0,0 +1,15 @@
+package com.wyx.commonlog
+
+import androidx.room.ColumnInfo
+import androidx.room.Entity
+import androidx.room.PrimaryKey
+
+/**
+ * 去重保存的异常堆栈，日志记录通过 stack_fingerprint 引用
+ */
+@Entity(tableName = "log_stack")
+data class LogStackBean(@PrimaryKey val fingerprint: Long,
+                        val stack: String,
+                        // 该堆栈累计出现的次数
+                        val occurrences: Long,
+                        @ColumnInfo(name = "last_seen") val lastSeen: Long)
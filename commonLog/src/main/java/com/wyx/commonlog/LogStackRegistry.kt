@@ -0,0 +1,125 @@
+package com.wyx.commonlog
+
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.util.Collections
+import java.util.IdentityHashMap
+
+/**
+ * 异常堆栈的指纹登记
+ *
+ * 同一个异常（类名 + 归一化的栈帧）只生成一次堆栈文本，日志记录只保存 64 位指纹。
+ * 最近使用的堆栈缓存在内存中供上传时查找；[trackPending] 为 true 时，
+ * 新出现的堆栈和出现次数会累积起来，由写入线程通过 [drainPending] 持久化。
+ * 待持久化的堆栈与次数一样最多保留 [capacity] 个，混合模式下长时间不转存也不会无限增长，
+ * 超出的堆栈在转存时按日志引用从缓存中补齐
+ */
+class LogStackRegistry(private val capacity: Int = 256, private val trackPending: Boolean = true) {
+
+    private val cache = object : LinkedHashMap<Long, String>(16, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, String>?) = size > capacity
+    }
+    private val pendingStacks = HashMap<Long, String>()
+    private val pendingCounts = HashMap<Long, Long>()
+
+    /**
+     * 登记一次异常，返回其指纹
+     */
+    fun register(t: Throwable): Long {
+        val fingerprint = fingerprint(t)
+        synchronized(this) {
+            if (!cache.containsKey(fingerprint)) {
+                val stack = stackTraceString(t)
+                cache[fingerprint] = stack
+                if (trackPending && pendingStacks.size < capacity) pendingStacks[fingerprint] = stack
+            }
+            if (trackPending && (pendingCounts.size < capacity || pendingCounts.containsKey(fingerprint))) {
+                pendingCounts[fingerprint] = (pendingCounts[fingerprint] ?: 0L) + 1
+            }
+        }
+        return fingerprint
+    }
+
+    fun stackOf(fingerprint: Long): String? = synchronized(this) { cache[fingerprint] }
+
+    /**
+     * 取出上次调用以来新出现的堆栈及各指纹增加的次数，新出现的堆栈 occurrences 为增量
+     */
+    fun drainPending(now: Long): List<LogStackBean> = drainPending(now, emptyList())
+
+    /**
+     * 同 [drainPending]，并为 [logs] 引用但未在待持久化中的堆栈从缓存补上文本（次数为 0），
+     * 写入 [logs] 前调用，保证它们引用的堆栈都已保存
+     */
+    fun drainPending(now: Long, logs: List<LogRecordBean>): List<LogStackBean> = synchronized(this) {
+        val missing = logs.mapNotNullTo(HashSet()) { it.stackFingerprint }
+        missing.removeAll(pendingStacks.keys)
+        if (pendingCounts.isEmpty() && pendingStacks.isEmpty() && missing.isEmpty()) return emptyList()
+        val result = (pendingCounts.keys + pendingStacks.keys + missing).map { fingerprint ->
+            val stack = pendingStacks[fingerprint] ?: cache[fingerprint].takeIf { fingerprint in missing }
+            LogStackBean(fingerprint, stack.orEmpty(), pendingCounts[fingerprint] ?: 0L, now)
+        }
+        pendingStacks.clear()
+        pendingCounts.clear()
+        result
+    }
+
+    companion object {
+        private const val MAX_FRAMES = 64
+        private const val MAX_CAUSES = 8
+        private const val FNV_OFFSET = -0x340d631b7bdddcdbL
+        private const val FNV_PRIME = 0x100000001b3L
+
+        /**
+         * 计算异常的指纹：异常类名和栈帧的类名、方法名，沿 cause 链向下；
+         * 不包含异常消息和行号，匿名类、lambda 名称中 $ 后的序号被忽略，版本间小改动不会改变指纹
+         */
+        fun fingerprint(t: Throwable): Long {
+            var hash = FNV_OFFSET
+            val seen = Collections.newSetFromMap(IdentityHashMap<Throwable, Boolean>())
+            var current: Throwable? = t
+            while (current != null && seen.size < MAX_CAUSES && seen.add(current)) {
+                hash = mix(hash, current.javaClass.name)
+                val frames = current.stackTrace
+                for (i in 0 until minOf(frames.size, MAX_FRAMES)) {
+                    hash = mix(hash, frames[i].className)
+                    hash = mix(hash, frames[i].methodName)
+                }
+                current = current.cause
+            }
+            return hash
+        }
+
+        /**
+         * 与 Timber 拼接到日志内容中的堆栈文本一致
+         */
+        fun stackTraceString(t: Throwable): String {
+            val writer = StringWriter(256)
+            PrintWriter(writer, false).use { t.printStackTrace(it) }
+            return writer.toString()
+        }
+
+        /**
+         * 去掉 Timber 拼接在日志内容末尾的堆栈帧，保留调用方传入的消息和异常首行（t.toString()），
+         * 同一指纹的每次异常消息可能不同，首行随日志保存，去重的只有堆栈帧
+         */
+        fun stripStackTrace(message: String, t: Throwable): String {
+            val head = t.toString()
+            if (message.startsWith(head)) return head
+            val index = message.indexOf("\n" + head)
+            return if (index >= 0) message.substring(0, index + 1 + head.length) else message
+        }
+
+        private fun mix(hash: Long, value: String): Long {
+            var h = hash
+            var afterDollar = false
+            for (c in value) {
+                if (afterDollar && c in '0'..'9') continue
+                afterDollar = c == '$'
+                h = (h xor c.code.toLong()) * FNV_PRIME
+            }
+            // 分隔符，避免 "ab" + "c" 与 "a" + "bc" 相同
+            return (h xor 0xFFL) * FNV_PRIME
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.wyx.commonlog
+
+import android.content.Context
+import androidx.sqlite.db.SimpleSQLiteQuery
+import java.io.File
+
+/**
+ * 持久化日志的存储抽象，日志 id 单调递增，已上传的日志按 id 区间整体删除
+ */
+interface LogStore {
+
+    /**
+     * 追加一批日志
+     */
+    suspend fun append(logs: List<LogRecordBean>)
+
+    /**
+     * 按 id 升序取出 id 大于 [lastId] 的 [limit] 条日志（keyset 分页）
+     */
+    suspend fun readAfter(lastId: Long, limit: Int): List<LogRecordBean>
+
+    /**
+     * 取出最早的 [limit] 条日志
+     */
+    suspend fun readOldest(limit: Int): List<LogRecordBean> = readAfter(0, limit)
+
+    /**
+     * 当前存储的日志条数
+     */
+    suspend fun count(): Long
+
+    /**
+     * 删除 id 小于等于 [maxId] 的全部日志，返回删除条数
+     */
+    suspend fun deleteThrough(maxId: Long): Int
+
+    /**
+     * 保存新出现的异常堆栈并累加出现次数，[stacks] 中 stack 为空的项只累加次数
+     */
+    suspend fun recordStacks(stacks: List<LogStackBean>)
+
+    /**
+     * 按指纹查询堆栈文本
+     */
+    suspend fun loadStacks(fingerprints: Collection<Long>): Map<Long, String>
+
+    /**
+     * 超出 [maxBytes] 字节或 [maxRows] 条时淘汰日志，返回淘汰条数；上限为 0 表示不限制
+     */
+    suspend fun enforceQuota(maxBytes: Long = LogConfig.maxStoreBytes, maxRows: Long = LogConfig.maxStoreRows): Int
+
+    companion object {
+        private const val JOURNAL_DIR = "common_log_journal"
+
+        /**
+         * 堆栈超过这个时间没有再出现、且没有日志引用时删除
+         */
+        internal const val STACK_TTL_MS = 7L * 24 * 60 * 60 * 1000
+
+        fun create(context: Context, type: LogStoreType = LogConfig.storeType): LogStore = when (type) {
+            LogStoreType.ROOM -> RoomLogStore(LogDatabaseProvider.get(context).logDao())
+            LogStoreType.JOURNAL -> MappedJournalLogStore.getInstance(File(context.filesDir, JOURNAL_DIR))
+        }
+
+        /**
+         * 在 IO 线程上提前打开存储（数据库或日志段恢复）
+         */
+        suspend fun open(context: Context, type: LogStoreType = LogConfig.storeType): LogStore = when (type) {
+            LogStoreType.ROOM -> RoomLogStore(LogDatabaseProvider.open(context).logDao())
+            LogStoreType.JOURNAL -> MappedJournalLogStore.open(File(context.filesDir, JOURNAL_DIR))
+        }
+    }
+}
+
+enum class LogStoreType {
+    /** 基于 Room 的 SQLite 存储 */
+    ROOM,
+
+    /** 基于内存映射文件的追加日志 */
+    JOURNAL
+}
+
+/**
+ * Room 实现
+ */
+class RoomLogStore(private val dao: LogDao) : LogStore {
+
+    override suspend fun append(logs: List<LogRecordBean>) = dao.insertAll(logs)
+
+    override suspend fun readAfter(lastId: Long, limit: Int): List<LogRecordBean> = dao.getLogsAfter(lastId, limit)
+
+    override suspend fun count(): Long = dao.count()
+
+    override suspend fun deleteThrough(maxId: Long): Int = dao.deleteThrough(maxId)
+
+    override suspend fun recordStacks(stacks: List<LogStackBean>) {
+        dao.insertStacks(stacks.filter { it.stack.isNotEmpty() }.map { it.copy(occurrences = 0) })
+        stacks.forEach { dao.addStackOccurrences(it.fingerprint, it.occurrences, it.lastSeen) }
+    }
+
+    override suspend fun loadStacks(fingerprints: Collection<Long>): Map<Long, String> =
+        if (fingerprints.isEmpty()) emptyMap()
+        else dao.getStacks(fingerprints.toList()).associate { it.fingerprint to it.stack }
+
+    /**
+     * 先淘汰 VERBOSE、DEBUG，再依次淘汰 INFO、WARN、ERROR，同一级别从最旧的开始。
+     * 每次最多删除 [EVICT_CHUNK] 条，各自是一个短事务，写入线程可以在两次删除之间插入日志。
+     * 淘汰到配额的 90%，避免每批写入后都触发
+     */
+    override suspend fun enforceQuota(maxBytes: Long, maxRows: Long): Int {
+        dao.deleteStacksBefore(System.currentTimeMillis() - LogStore.STACK_TTL_MS)
+        val rows = dao.count()
+        if (rows == 0L) return 0
+        var excess = if (maxRows > 0 && rows > maxRows) rows - maxRows * 9 / 10 else 0L
+        if (maxBytes > 0) {
+            // 已删除的页进入 freelist 会被复用，只统计实际占用的页
+            val used = (pragma("page_count") - pragma("freelist_count")) * pragma("page_size")
+            if (used > maxBytes) {
+                val rowBytes = maxOf(1L, used / rows)
+                excess = maxOf(excess, (used - maxBytes * 9 / 10 + rowBytes - 1) / rowBytes)
+            }
+        }
+
+        var evicted = 0
+        for (level in EVICTION_ORDER) {
+            while (excess > 0) {
+                val maxId = dao.getLevelCutoffId(level, minOf(excess, EVICT_CHUNK.toLong()).toInt()) ?: break
+                val deleted = dao.deleteLevelThrough(level, maxId)
+                if (deleted == 0) break
+                excess -= deleted
+                evicted += deleted
+            }
+        }
+        if (evicted > 0) LogMetrics.onEvicted(evicted)
+        return evicted
+    }
+
+    private suspend fun pragma(name: String) = dao.pragma(SimpleSQLiteQuery("PRAGMA $name"))
+
+    companion object {
+        private const val EVICT_CHUNK = 500
+        private val EVICTION_ORDER = listOf("VERBOSE", "DEBUG", "INFO", "WARN", "ERROR")
+    }
+}
@@ -0,0 +1,74 @@
+package com.wyx.commonlog
+
+/**
+ * 线程安全的 ISO-8601 UTC 时间格式化，输出形如 2024-01-01T08:00:00.000Z
+ *
+ * 替代共享的 SimpleDateFormat（非线程安全），日期部分按天缓存，只在上传时调用
+ */
+object LogTimestampFormatter {
+
+    private class DayPrefix(val day: Long, val prefix: String)
+
+    @Volatile
+    private var cached = DayPrefix(Long.MIN_VALUE, "")
+
+    fun format(timeMillis: Long): String {
+        val builder = StringBuilder(24)
+        formatTo(timeMillis, builder)
+        return builder.toString()
+    }
+
+    fun formatTo(timeMillis: Long, out: StringBuilder) {
+        val day = timeMillis.floorDiv(MILLIS_PER_DAY)
+        var prefix = cached
+        if (prefix.day != day) {
+            prefix = DayPrefix(day, datePrefix(day))
+            cached = prefix
+        }
+        val millisOfDay = (timeMillis - day * MILLIS_PER_DAY).toInt()
+        out.append(prefix.prefix)
+        appendPadded(out, millisOfDay / 3_600_000, 2)
+        out.append(':')
+        appendPadded(out, millisOfDay / 60_000 % 60, 2)
+        out.append(':')
+        appendPadded(out, millisOfDay / 1000 % 60, 2)
+        out.append('.')
+        appendPadded(out, millisOfDay % 1000, 3)
+        out.append('Z')
+    }
+
+    /**
+     * 由距 1970-01-01 的天数计算公历日期（Howard Hinnant 的 civil_from_days 算法）
+     */
+    private fun datePrefix(epochDay: Long): String {
+        val z = epochDay + 719468
+        val era = z.floorDiv(146097L)
+        val doe = z - era * 146097
+        val yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365
+        val doy = doe - (365 * yoe + yoe / 4 - yoe / 100)
+        val mp = (5 * doy + 2) / 153
+        val day = (doy - (153 * mp + 2) / 5 + 1).toInt()
+        val month = (if (mp < 10) mp + 3 else mp - 9).toInt()
+        val year = (yoe + era * 400 + if (month <= 2) 1 else 0).toInt()
+
+        val builder = StringBuilder(11)
+        appendPadded(builder, year, 4)
+        builder.append('-')
+        appendPadded(builder, month, 2)
+        builder.append('-')
+        appendPadded(builder, day, 2)
+        builder.append('T')
+        return builder.toString()
+    }
+
+    private fun appendPadded(out: StringBuilder, value: Int, width: Int) {
+        var limit = 10
+        for (i in 1 until width) {
+            if (value < limit) out.append('0')
+            limit *= 10
+        }
+        out.append(value)
+    }
+
+    private const val MILLIS_PER_DAY = 86_400_000L
+}
@@ -0,0 +1,110 @@
+package com.wyx.commonlog
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.runInterruptible
+
+/**
+ * 并发上传流水线
+ *
+ * 最多同时发出 [maxInFlight] 个 _bulk 请求（HTTP/2 下复用同一个连接），批次大小由 [sizer] 根据耗时调整；
+ * 无论请求完成的先后，结果都按提交顺序确认，调用方可以据此按连续的 id 区间删除已上传的日志
+ */
+class LogUploadPipeline(
+    private val uploader: LogUploader,
+    private val maxInFlight: Int = LogConfig.uploadConcurrency,
+    val sizer: AdaptiveBatchSizer = AdaptiveBatchSizer(),
+    private val dispatcher: CoroutineDispatcher = Dispatchers.IO
+) {
+
+    private class InFlight(val logs: List<LogRecordBean>, val bytes: Long, val result: Deferred<Completed>)
+
+    private class Completed(val result: LogUploader.BulkResult, val latencyMs: Long)
+
+    // 已发出但尚未确认的批次，供崩溃时转储读取
+    @Volatile
+    private var unacked: List<List<LogRecordBean>> = emptyList()
+
+    /**
+     * 已发出但尚未确认的日志，按提交顺序
+     */
+    fun unacked(): List<List<LogRecordBean>> = unacked
+
+    /**
+     * 反复调用 [next] 取出最多 batchSize 条日志上传，[next] 返回空列表后不再取数据，等待已发出的请求完成后返回；
+     * [next] 的 idle 为 false 表示还有请求未确认，此时不应长时间阻塞等待凑满批次，取不到数据就返回空列表。
+     * 每个批次完成后按提交顺序调用 [onAck]，已完成的批次在取下一批之前先确认；返回 false 时停止流水线，
+     * 尚未确认的请求被取消。全部批次都被确认时返回 true
+     */
+    suspend fun run(
+        next: suspend (limit: Int, idle: Boolean) -> List<LogRecordBean>,
+        onAck: suspend (logs: List<LogRecordBean>, result: LogUploader.BulkResult) -> Boolean
+    ): Boolean = coroutineScope {
+        val inFlight = ArrayDeque<InFlight>(maxInFlight)
+
+        suspend fun ackHead(): Boolean {
+            val head = inFlight.first()
+            val done = head.result.await()
+            LogMetrics.onUploaded(head.logs.size, done.latencyMs, done.result.isSuccessful, done.result.retry.size)
+            if (done.result.isSuccessful) {
+                sizer.onSuccess(head.logs.size, head.bytes, done.latencyMs)
+            } else {
+                sizer.onFailure()
+            }
+            val acked = onAck(head.logs, done.result)
+            inFlight.removeFirst()
+            unacked = inFlight.map { it.logs }
+            return acked
+        }
+
+        var exhausted = false
+        var completed = true
+        loop@ while (true) {
+            // 失败重试、转存不必等到下一批取出之后
+            while (inFlight.firstOrNull()?.result?.isCompleted == true) {
+                if (!ackHead()) {
+                    completed = false
+                    break@loop
+                }
+            }
+            if (!exhausted && inFlight.size < maxInFlight) {
+                val logs = next(sizer.batchSize, inFlight.isEmpty())
+                if (logs.isNotEmpty()) {
+                    val upload = async(dispatcher) { upload(logs) }
+                    inFlight.addLast(InFlight(logs, logs.sumOf { estimateSize(it) }, upload))
+                    unacked = inFlight.map { it.logs }
+                    continue
+                }
+                exhausted = true
+            }
+            if (inFlight.isEmpty()) break
+            if (!ackHead()) {
+                completed = false
+                break
+            }
+        }
+        unacked = emptyList()
+        // 未确认的日志仍在存储中，下次会重新上传
+        inFlight.forEach { it.result.cancel() }
+        completed
+    }
+
+    private suspend fun upload(logs: List<LogRecordBean>): Completed {
+        val start = System.nanoTime()
+        val result = runInterruptible { uploader.uploadBulk(logs) }
+        return Completed(result, (System.nanoTime() - start) / 1_000_000)
+    }
+
+    companion object {
+        private const val RECORD_OVERHEAD = 64
+
+        /**
+         * 估算一条日志在请求体中的字节数
+         */
+        fun estimateSize(log: LogRecordBean): Long =
+            (log.message.length + (log.tag?.length ?: 0) + (log.fields?.size ?: 0) + RECORD_OVERHEAD).toLong()
+    }
+}
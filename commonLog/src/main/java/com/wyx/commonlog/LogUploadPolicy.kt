@@ -0,0 +1,56 @@
+package com.wyx.commonlog
+
+/**
+ * 当前网络类型
+ */
+enum class NetworkKind {
+    NONE,
+    METERED,
+    UNMETERED
+}
+
+/**
+ * 影响上传时机的设备状态
+ */
+data class UploadConditions(val foreground: Boolean, val network: NetworkKind, val charging: Boolean)
+
+/**
+ * 上传时机策略，不依赖 Android API，便于在单元测试中模拟一段时间内的无线电唤醒次数
+ *
+ * 不计费网络且充电或在前台时尽快上传；后台计费网络时尽量攒批；其他应用已经唤醒无线电时顺带上传
+ */
+class LogUploadPolicy(
+    private val unmeteredIntervalMs: Long = LogConfig.uploadUnmeteredIntervalMs,
+    private val foregroundIntervalMs: Long = LogConfig.uploadForegroundIntervalMs,
+    private val backgroundIntervalMs: Long = LogConfig.uploadBackgroundIntervalMs,
+    private val coalesceMinIntervalMs: Long = LogConfig.uploadCoalesceMinIntervalMs
+) {
+
+    /**
+     * 两次上传之间最长的间隔
+     */
+    fun flushIntervalMs(conditions: UploadConditions): Long = when {
+        conditions.network == NetworkKind.NONE -> backgroundIntervalMs
+        conditions.network == NetworkKind.UNMETERED && (conditions.charging || conditions.foreground) -> unmeteredIntervalMs
+        conditions.foreground || conditions.network == NetworkKind.UNMETERED -> foregroundIntervalMs
+        else -> backgroundIntervalMs
+    }
+
+    /**
+     * 是否应当立即上传：批次已满、距上次上传超过间隔，或无线电已被唤醒且距上次上传不太近
+     */
+    fun shouldFlush(conditions: UploadConditions, pending: Int, batchSize: Int,
+                    sinceLastFlushMs: Long, radioActive: Boolean): Boolean {
+        if (conditions.network == NetworkKind.NONE || pending == 0) return false
+        if (pending >= batchSize) return true
+        if (radioActive && sinceLastFlushMs >= coalesceMinIntervalMs) return true
+        return sinceLastFlushMs >= flushIntervalMs(conditions)
+    }
+
+    /**
+     * 状态变化后是否应当提前上传：切换到不计费网络或开始充电
+     */
+    fun isImproved(old: UploadConditions, new: UploadConditions): Boolean =
+        new.network == NetworkKind.UNMETERED && old.network != NetworkKind.UNMETERED ||
+                new.charging && !old.charging && new.network != NetworkKind.NONE
+}
@@ -0,0 +1,139 @@
+package com.wyx.commonlog
+
+import android.content.BroadcastReceiver
+import android.content.Context
+import android.content.Intent
+import android.content.IntentFilter
+import android.net.ConnectivityManager
+import android.net.Network
+import android.net.NetworkCapabilities
+import android.net.NetworkRequest
+import android.os.BatteryManager
+import android.os.Build
+import android.os.SystemClock
+import androidx.core.content.ContextCompat
+import com.wyx.examplebase.utils.ForegroundBackgroundHelper
+import com.wyx.examplebase.utils.ForegroundBackgroundObserver
+import java.util.concurrent.atomic.AtomicReference
+
+/**
+ * 跟踪前后台、网络类型、充电状态和无线电活动，按 [LogUploadPolicy] 决定上传间隔
+ *
+ * [pendingCount] 返回等待上传的日志数；需要提前上传时（切换到不计费网络、开始充电、
+ * 其他流量已唤醒无线电）回调 [onFlushRequested]
+ */
+class LogUploadScheduler(
+    context: Context,
+    private val pendingCount: () -> Int,
+    private val onFlushRequested: () -> Unit,
+    private val policy: LogUploadPolicy = LogUploadPolicy(),
+    private val batchSize: Int = LogConfig.uploadMaxBatchSize
+) : ForegroundBackgroundObserver {
+
+    private val appContext = context.applicationContext
+    private val connectivityManager = appContext.getSystemService(ConnectivityManager::class.java)
+
+    // 网络、电源、前后台回调在不同线程上，各自只修改自己的字段，整体原子替换
+    private val state = AtomicReference(
+        UploadConditions(ForegroundBackgroundHelper.isForeground(), NetworkKind.NONE, false)
+    )
+
+    val conditions: UploadConditions
+        get() = state.get()
+
+    @Volatile
+    private var lastFlushMs = SystemClock.elapsedRealtime()
+
+    private val networkCallback = object : ConnectivityManager.NetworkCallback() {
+        override fun onAvailable(network: Network) = refreshNetwork()
+        override fun onLost(network: Network) = refreshNetwork()
+        override fun onCapabilitiesChanged(network: Network, capabilities: NetworkCapabilities) = refreshNetwork()
+    }
+
+    private val powerReceiver = object : BroadcastReceiver() {
+        override fun onReceive(context: Context, intent: Intent) {
+            update { it.copy(charging = intent.action == Intent.ACTION_POWER_CONNECTED) }
+        }
+    }
+
+    // 其他流量唤醒了无线电，此时上传不会额外增加一次唤醒
+    private val networkActiveListener = ConnectivityManager.OnNetworkActiveListener {
+        val sinceLast = SystemClock.elapsedRealtime() - lastFlushMs
+        if (policy.shouldFlush(conditions, pendingCount(), batchSize, sinceLast, radioActive = true)) {
+            onFlushRequested()
+        }
+    }
+
+    fun start() {
+        val battery = appContext.registerReceiver(null, IntentFilter(Intent.ACTION_BATTERY_CHANGED))
+        val plugged = battery?.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) ?: 0
+        change { it.copy(charging = plugged != 0) }
+        refreshNetwork()
+
+        ContextCompat.registerReceiver(
+            appContext,
+            powerReceiver,
+            IntentFilter().apply {
+                addAction(Intent.ACTION_POWER_CONNECTED)
+                addAction(Intent.ACTION_POWER_DISCONNECTED)
+            },
+            ContextCompat.RECEIVER_NOT_EXPORTED
+        )
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            connectivityManager.registerDefaultNetworkCallback(networkCallback)
+        } else {
+            val request = NetworkRequest.Builder().addCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET).build()
+            connectivityManager.registerNetworkCallback(request, networkCallback)
+        }
+        connectivityManager.addDefaultNetworkActiveListener(networkActiveListener)
+        ForegroundBackgroundHelper.addObserve(this)
+    }
+
+    /**
+     * 当前状态下两次上传之间最长的间隔
+     */
+    fun flushIntervalMs(): Long = policy.flushIntervalMs(conditions)
+
+    val isConnected: Boolean
+        get() = conditions.network != NetworkKind.NONE
+
+    /**
+     * 每次发起上传后调用
+     */
+    fun onFlushed() {
+        lastFlushMs = SystemClock.elapsedRealtime()
+    }
+
+    override fun foregroundBackgroundNotify(isForeground: Boolean) {
+        update { it.copy(foreground = isForeground) }
+    }
+
+    private fun refreshNetwork() {
+        val capabilities = connectivityManager.activeNetwork?.let { connectivityManager.getNetworkCapabilities(it) }
+        val network = when {
+            capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET) -> NetworkKind.NONE
+            capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED) -> NetworkKind.UNMETERED
+            else -> NetworkKind.METERED
+        }
+        update { it.copy(network = network) }
+    }
+
+    /**
+     * CAS 方式修改状态，返回修改前后的值（AtomicReference.updateAndGet 需要 API 24）
+     */
+    private inline fun change(transform: (UploadConditions) -> UploadConditions): Pair<UploadConditions, UploadConditions> {
+        while (true) {
+            val old = state.get()
+            val new = transform(old)
+            if (old == new || state.compareAndSet(old, new)) return old to new
+        }
+    }
+
+    private inline fun update(transform: (UploadConditions) -> UploadConditions) {
+        val (old, new) = change(transform)
+        if (old == new) return
+        if (policy.isImproved(old, new) && pendingCount() > 0) {
+            onFlushRequested()
+        }
+    }
+}
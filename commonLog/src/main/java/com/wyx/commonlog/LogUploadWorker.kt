@@ -1,10 +1,11 @@
 package com.wyx.commonlog
 
 import android.content.Context
-import androidx.room.Room
+import android.os.SystemClock
 import androidx.work.CoroutineWorker
 import androidx.work.WorkerParameters
-import okhttp3.OkHttpClient
+import androidx.work.workDataOf
+import java.util.concurrent.ConcurrentHashMap
 
 class LogUploadWorker(
     context: Context,
@@ -19,21 +20,66 @@ class LogUploadWorker(
             return Result.failure()
         }
 
-        val database = Room.databaseBuilder(applicationContext, LogDatabase::class.java, "common_log.db").build()
-        val uploader = LogUploader(client, url) // 使用拿到的 client 和 url
+        val store = LogStore.create(applicationContext)
+        ingestCrashDump(store)
+        // 上传时按指纹查找堆栈，每页读出后补充查询本次运行中尚未加载的堆栈
+        val stacks = ConcurrentHashMap<Long, String>()
+        val uploader = LogUploader(client, url, stackResolver = { stacks[it] }) // 使用拿到的 client 和 url
+        // 长时间离线后先把存储压回配额内，再开始上传
+        store.enforceQuota()
 
-        val dao = database.logDao()
-        val logs = dao.getOldestLogs(50)
+        // 在时间和流量预算内并发分页上传，按提交顺序确认后按 id 区间删除
+        val deadline = SystemClock.elapsedRealtime() + LogConfig.drainTimeBudgetMs
+        var readId = 0L
+        var drained = 0
+        var bytes = 0L
+        val completed = LogUploadPipeline(uploader).run(
+            next = { limit, _ ->
+                if (SystemClock.elapsedRealtime() >= deadline || bytes >= LogConfig.drainByteBudget) {
+                    emptyList()
+                } else {
+                    store.readAfter(readId, limit).also { logs ->
+                        if (logs.isNotEmpty()) readId = logs.last().id
+                        val missing = logs.mapNotNullTo(HashSet()) { it.stackFingerprint }
+                        missing.removeAll(stacks.keys)
+                        if (missing.isNotEmpty()) stacks.putAll(store.loadStacks(missing))
+                        bytes += logs.sumOf { LogUploadPipeline.estimateSize(it) }
+                    }
+                }
+            },
+            onAck = { logs, result ->
+                if (result.isSuccessful) {
+                    // 被拒绝的记录重新追加到末尾等待下次重试，其余按 id 区间整体删除
+                    if (result.retry.isNotEmpty()) {
+                        store.append(result.retry.map { it.copy(id = 0) })
+                    }
+                    store.deleteThrough(logs.last().id)
+                    drained += logs.size - result.retry.size
+                }
+                result.isSuccessful && result.retry.isEmpty()
+            }
+        )
+        if (!completed) {
+            return Result.retry()
+        }
+        return Result.success(workDataOf(KEY_DRAINED to drained, KEY_REMAINING to store.count()))
+    }
 
+    /**
+     * 把上次崩溃时转储的日志写入存储，随后和其他日志一起上传
+     */
+    private suspend fun ingestCrashDump(store: LogStore) {
+        val dumper = CrashLogDumper.getInstance(applicationContext.filesDir)
+        if (dumper.isEmpty) return
+        val logs = dumper.readAll()
         if (logs.isNotEmpty()) {
-            val success = uploader.upload(logs)
-            if (success) {
-                dao.delete(logs)
-                return Result.success()
-            } else {
-                return Result.retry()
-            }
+            store.append(logs.map { it.copy(id = 0) })
         }
-        return Result.success()
+        dumper.clearThrough(logs.lastOrNull()?.id ?: 0)
+    }
+
+    companion object {
+        const val KEY_DRAINED = "drained"
+        const val KEY_REMAINING = "remaining"
     }
-}
\ No newline at end of file
+}
@@ -1,28 +1,158 @@
 package com.wyx.commonlog
 
-import com.google.gson.Gson
+import com.google.gson.stream.JsonReader
+import com.google.gson.stream.JsonToken
+import com.google.gson.stream.JsonWriter
+import okhttp3.MediaType
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
 import okhttp3.Request
-import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.RequestBody
+import okio.BufferedSink
+import java.io.OutputStreamWriter
 
-class LogUploader(private val client: OkHttpClient, private val esUrl: String) {
-    private val gson = Gson()
+class LogUploader(private val client: OkHttpClient,
+                  private val esUrl: String,
+                  private val compression: LogCompression = LogConfig.compression,
+                  private val compressionLevel: Int = LogConfig.compressionLevel,
+                  private val stackResolver: (Long) -> String? = { null }) {
+    // esUrl 指向索引（兼容以 /_doc 结尾的单条写入地址），批量接口为 {index}/_bulk
+    private val bulkUrl = esUrl.trimEnd('/').removeSuffix("/_doc") + "/_bulk"
 
     fun upload(logs: List<LogRecordBean>): Boolean {
-        if (logs.isEmpty()) return true
-
-        logs.forEach { log ->
-            try {
-                val json = gson.toJson(log)
-                val body = json.toRequestBody("application/json".toMediaType())
-                val request = Request.Builder().url(esUrl).post(body).build()
-                client.newCall(request).execute().close()
-            } catch (e: Exception) {
-                e.printStackTrace()
-                return false // 标记失败
+        val result = uploadBulk(logs)
+        return result.isSuccessful && result.retry.isEmpty()
+    }
+
+    /**
+     * 通过 Elasticsearch _bulk 接口一次请求上传整批日志
+     *
+     * 请求体以 NDJSON 形式逐条经压缩流直接写入 OkHttp 的 sink，不会为每条日志生成 JSON 字符串；
+     * 带异常的日志都写入 stack_fingerprint，同一指纹的完整堆栈在每个请求中只写一次；
+     * 响应中逐条解析失败项，只有可重试的失败记录（429 / 5xx）会放入 [BulkResult.retry]
+     */
+    fun uploadBulk(logs: List<LogRecordBean>): BulkResult {
+        if (logs.isEmpty()) return BulkResult(true, emptyList())
+
+        return try {
+            val body = CompressedRequestBody(BulkRequestBody(logs), compression, compressionLevel)
+            val request = Request.Builder().url(bulkUrl).post(body).apply {
+                compression.encoding?.let { header("Content-Encoding", it) }
+            }.build()
+            client.newCall(request).execute().use { response ->
+                if (!response.isSuccessful) {
+                    return BulkResult(false, logs)
+                }
+                val rejected = parseRejected(JsonReader(response.body.charStream()))
+                BulkResult(true, rejected.map { logs[it] })
+            }
+        } catch (e: Exception) {
+            e.printStackTrace()
+            BulkResult(false, logs) // 标记失败
+        }
+    }
+
+    /**
+     * 解析 _bulk 响应，返回需要重试的记录下标
+     */
+    private fun parseRejected(reader: JsonReader): List<Int> {
+        val rejected = mutableListOf<Int>()
+        var hasErrors = true
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "errors" -> hasErrors = reader.nextBoolean()
+                "items" -> if (hasErrors) readItems(reader, rejected) else reader.skipValue()
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return rejected
+    }
+
+    private fun readItems(reader: JsonReader, rejected: MutableList<Int>) {
+        var index = 0
+        reader.beginArray()
+        while (reader.hasNext()) {
+            // 每一项形如 {"index": {"status": 201, ...}}
+            reader.beginObject()
+            while (reader.hasNext()) {
+                reader.nextName()
+                val status = readStatus(reader)
+                if (status == 429 || status >= 500) {
+                    rejected.add(index)
+                }
+            }
+            reader.endObject()
+            index++
+        }
+        reader.endArray()
+    }
+
+    private fun readStatus(reader: JsonReader): Int {
+        var status = 0
+        reader.beginObject()
+        while (reader.hasNext()) {
+            if (reader.nextName() == "status" && reader.peek() == JsonToken.NUMBER) {
+                status = reader.nextInt()
+            } else {
+                reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return status
+    }
+
+    /**
+     * _bulk 请求体，每条日志写成 action 行 + 文档行
+     */
+    private inner class BulkRequestBody(private val logs: List<LogRecordBean>) : RequestBody() {
+
+        override fun contentType(): MediaType = NDJSON
+
+        override fun writeTo(sink: BufferedSink) {
+            val writer = OutputStreamWriter(sink.outputStream(), Charsets.UTF_8)
+            val jsonWriter = JsonWriter(writer).apply { isLenient = true }
+            val timestamp = StringBuilder(24)
+            val sentStacks = HashSet<Long>()
+            logs.forEach { log ->
+                writer.write(BULK_ACTION)
+                timestamp.setLength(0)
+                LogTimestampFormatter.formatTo(log.timeMillis, timestamp)
+                jsonWriter.beginObject()
+                    .name("@timestamp").value(timestamp.toString())
+                    .name("level").value(log.level)
+                    .name("tag").value(log.tag)
+                    .name("message").value(log.message)
+                if (log.repeatCount > 1) {
+                    jsonWriter.name("repeat_count").value(log.repeatCount.toLong())
+                }
+                log.stackFingerprint?.let { fingerprint ->
+                    jsonWriter.name("stack_fingerprint").value(java.lang.Long.toHexString(fingerprint))
+                    if (sentStacks.add(fingerprint)) {
+                        stackResolver(fingerprint)?.let { jsonWriter.name("stack").value(it) }
+                    }
+                }
+                log.fields?.let {
+                    jsonWriter.name("fields")
+                    LogFields.writeJson(it, jsonWriter)
+                }
+                jsonWriter.endObject()
+                writer.write("\n")
             }
+            writer.flush()
         }
-        return true
     }
-}
\ No newline at end of file
+
+    /**
+     * 批量上传结果
+     *
+     * [isSuccessful] 为 false 表示整个请求失败，此时 [retry] 为整批日志
+     */
+    class BulkResult(val isSuccessful: Boolean, val retry: List<LogRecordBean>)
+
+    companion object {
+        private const val BULK_ACTION = "{\"index\":{}}\n"
+        private val NDJSON = "application/x-ndjson".toMediaType()
+    }
+}
@@ -0,0 +1,285 @@
+package com.wyx.commonlog
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.util.Locale
+
+/**
+ * 基于内存映射文件的分段追加日志
+ *
+ * 日志按 [LogRecordCodec] 编码后直接拷贝进映射的段文件，写入一条日志只是一次内存拷贝；
+ * 段文件写满后新建下一段，已上传的段整体删除。进程崩溃后重新打开时逐条校验，
+ * 以最后一条完整记录作为写入位置。已确认上传的最大 id 记录在 checkpoint 文件中
+ */
+class MappedJournalLogStore internal constructor(
+    private val dir: File,
+    private val segmentSize: Int
+) : LogStore {
+
+    private class Segment(val file: File, val buffer: MappedByteBuffer, val firstId: Long) {
+        var lastId = firstId - 1
+
+        // 上次读取停下的位置：readId 及之前的记录都在 readPosition 之前，下一次分页从这里继续
+        var readId = firstId - 1
+        var readPosition = 0
+    }
+
+    private val segments = ArrayList<Segment>()
+    private val codec = LogRecordCodec()
+    private val checkpointFile = File(dir, CHECKPOINT_FILE)
+    private val stackDir = File(dir, STACK_DIR)
+
+    private var checkpoint = 0L
+    private var nextId = 1L
+
+    // 堆栈文件的总字节数，计入配额
+    private var stackBytes = 0L
+    private var lastStackSweepMs = 0L
+
+    init {
+        dir.mkdirs()
+        recover()
+    }
+
+    override suspend fun append(logs: List<LogRecordBean>) = synchronized(this) {
+        logs.forEach { log ->
+            val encoded = codec.encode(nextId, log)
+            val segment = writableSegment(encoded.remaining())
+            segment.buffer.put(encoded)
+            segment.lastId = nextId
+            nextId++
+        }
+    }
+
+    override suspend fun readAfter(lastId: Long, limit: Int): List<LogRecordBean> = synchronized(this) {
+        val result = ArrayList<LogRecordBean>(minOf(limit, 256))
+        val after = maxOf(lastId, checkpoint)
+        for (segment in segments) {
+            if (segment.lastId <= after) continue
+            val reader = segment.buffer.duplicate()
+            var consumedId = segment.firstId - 1
+            if (segment.readId <= after) {
+                reader.position(segment.readPosition)
+                consumedId = segment.readId
+            } else {
+                reader.position(0)
+            }
+            // 已读过的记录只读长度和 id 跳过，不校验也不解码
+            while (true) {
+                val id = codec.peekId(reader)
+                if (id < 0 || id > after) break
+                codec.skip(reader)
+                consumedId = id
+            }
+            while (result.size < limit) {
+                val record = codec.decode(reader) ?: break
+                result.add(record)
+                consumedId = record.id
+            }
+            segment.readId = consumedId
+            segment.readPosition = reader.position()
+            if (result.size >= limit) break
+        }
+        result
+    }
+
+    override suspend fun count(): Long = synchronized(this) { nextId - 1 - checkpoint }
+
+    override suspend fun deleteThrough(maxId: Long): Int = synchronized(this) {
+        if (maxId <= checkpoint) return@synchronized 0
+        val target = minOf(maxId, nextId - 1)
+        val deleted = (target - checkpoint).toInt()
+        checkpoint = target
+        writeCheckpoint()
+
+        // 保留当前写入段，其余已全部上传的段整体删除
+        while (segments.size > 1 && segments[0].lastId <= checkpoint) {
+            segments.removeAt(0).file.delete()
+        }
+        deleted
+    }
+
+    /**
+     * 每个堆栈保存为一个以指纹命名的文件，出现次数不持久化，文件修改时间记录最后一次出现的时间
+     */
+    override suspend fun recordStacks(stacks: List<LogStackBean>) = synchronized(this) {
+        stacks.forEach { stack ->
+            val file = stackFile(stack.fingerprint)
+            if (file.exists()) {
+                file.setLastModified(stack.lastSeen)
+            } else if (stack.stack.isNotEmpty()) {
+                stackDir.mkdirs()
+                file.writeText(stack.stack)
+                stackBytes += file.length()
+            }
+        }
+    }
+
+    override suspend fun loadStacks(fingerprints: Collection<Long>): Map<Long, String> =
+        fingerprints.mapNotNull { fingerprint ->
+            val file = stackFile(fingerprint)
+            if (file.exists()) fingerprint to file.readText() else null
+        }.toMap()
+
+    /**
+     * 追加日志无法按级别删除，超出配额时整段淘汰最旧的段，当前写入段保留；堆栈文件的大小计入配额。
+     * 每隔 [STACK_SWEEP_INTERVAL_MS] 删除一次过期且不再被引用的堆栈文件
+     */
+    override suspend fun enforceQuota(maxBytes: Long, maxRows: Long): Int = synchronized(this) {
+        val now = System.currentTimeMillis()
+        if (now - lastStackSweepMs >= STACK_SWEEP_INTERVAL_MS) {
+            lastStackSweepMs = now
+            sweepStacks(now)
+        }
+        var evicted = 0
+        while (segments.size > 1) {
+            val bytes = segments.sumOf { it.buffer.capacity().toLong() } + stackBytes
+            val overBytes = maxBytes > 0 && bytes > maxBytes
+            val overRows = maxRows > 0 && nextId - 1 - checkpoint > maxRows
+            if (!overBytes && !overRows) break
+            val oldest = segments.removeAt(0)
+            if (oldest.lastId > checkpoint) {
+                evicted += (oldest.lastId - checkpoint).toInt()
+                checkpoint = oldest.lastId
+            }
+            oldest.file.delete()
+        }
+        if (evicted > 0) {
+            writeCheckpoint()
+            LogMetrics.onEvicted(evicted)
+        }
+        evicted
+    }
+
+    /**
+     * 删除超过 [LogStore.STACK_TTL_MS] 没有再出现、且不被未上传日志引用的堆栈文件
+     */
+    private fun sweepStacks(now: Long) {
+        val expired = stackDir.listFiles { file -> now - file.lastModified() > LogStore.STACK_TTL_MS }.orEmpty()
+        if (expired.isEmpty()) return
+        val referenced = HashSet<String>()
+        for (segment in segments) {
+            if (segment.lastId <= checkpoint) continue
+            val reader = segment.buffer.duplicate()
+            reader.position(0)
+            while (true) {
+                val record = codec.decode(reader) ?: break
+                if (record.id <= checkpoint) continue
+                record.stackFingerprint?.let { referenced.add(java.lang.Long.toHexString(it)) }
+            }
+        }
+        expired.forEach { file ->
+            if (file.name in referenced) return@forEach
+            val length = file.length()
+            if (file.delete()) stackBytes -= length
+        }
+    }
+
+    private fun stackFile(fingerprint: Long) = File(stackDir, java.lang.Long.toHexString(fingerprint))
+
+    private fun writableSegment(recordSize: Int): Segment {
+        val current = segments.lastOrNull()
+        // 末尾保留 4 字节的 0 作为结束标记
+        if (current != null && current.buffer.remaining() >= recordSize + 4) {
+            return current
+        }
+        return openSegment(File(dir, segmentName(nextId)), nextId, maxOf(segmentSize, recordSize + 4)).also {
+            segments.add(it)
+        }
+    }
+
+    private fun openSegment(file: File, firstId: Long, size: Int): Segment {
+        val mapped = RandomAccessFile(file, "rw").use { raf ->
+            val length = maxOf(raf.length(), size.toLong())
+            raf.channel.map(FileChannel.MapMode.READ_WRITE, 0, length)
+        }
+        return Segment(file, mapped, firstId)
+    }
+
+    /**
+     * 扫描所有段文件恢复写入位置，遇到不完整或校验失败的记录即视为该段结束
+     */
+    private fun recover() {
+        checkpoint = readCheckpoint()
+        stackBytes = stackDir.listFiles().orEmpty().sumOf { it.length() }
+        val files = dir.listFiles { _, name -> name.endsWith(SEGMENT_SUFFIX) }
+            ?.sortedBy { it.name }
+            .orEmpty()
+        files.forEach { file ->
+            val firstId = file.name.removeSuffix(SEGMENT_SUFFIX).toLongOrNull() ?: return@forEach
+            val segment = openSegment(file, firstId, segmentSize)
+            val buffer = segment.buffer
+            while (true) {
+                val record = codec.decode(buffer) ?: break
+                segment.lastId = record.id
+            }
+            // 清掉崩溃时写了一半的记录，保证后续追加的数据可以被连续读出
+            if (buffer.remaining() >= 4) {
+                buffer.putInt(buffer.position(), 0)
+            }
+            if (segment.lastId < segment.firstId && file != files.last()) {
+                file.delete()
+                return@forEach
+            }
+            segments.add(segment)
+        }
+        // 旧段在崩溃前可能已经上传完但未删除
+        while (segments.size > 1 && segments[0].lastId <= checkpoint) {
+            segments.removeAt(0).file.delete()
+        }
+        nextId = maxOf(checkpoint, segments.lastOrNull()?.lastId ?: 0) + 1
+        segments.lastOrNull()?.let { last ->
+            // 最后一段如果没有任何有效记录，其文件名对应的 id 可能与 nextId 不一致，直接重建
+            if (last.lastId < last.firstId && last.firstId != nextId) {
+                segments.remove(last)
+                last.file.delete()
+            }
+        }
+    }
+
+    private fun readCheckpoint(): Long {
+        if (!checkpointFile.exists()) return 0
+        return try {
+            RandomAccessFile(checkpointFile, "r").use { it.readLong() }
+        } catch (e: Exception) {
+            0
+        }
+    }
+
+    private fun writeCheckpoint() {
+        RandomAccessFile(checkpointFile, "rw").use {
+            it.seek(0)
+            it.writeLong(checkpoint)
+        }
+    }
+
+    private fun segmentName(firstId: Long) = String.format(Locale.US, "%020d%s", firstId, SEGMENT_SUFFIX)
+
+    companion object {
+        private const val SEGMENT_SUFFIX = ".seg"
+        private const val CHECKPOINT_FILE = "checkpoint"
+        private const val STACK_DIR = "stacks"
+        private const val DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024
+        private const val STACK_SWEEP_INTERVAL_MS = 60 * 60 * 1000L
+
+        private val instances = HashMap<String, MappedJournalLogStore>()
+
+        /**
+         * 同一目录在进程内只能有一个实例，否则会出现多个写入方
+         */
+        fun getInstance(dir: File, segmentSize: Int = DEFAULT_SEGMENT_SIZE): MappedJournalLogStore =
+            synchronized(instances) {
+                instances.getOrPut(dir.absolutePath) { MappedJournalLogStore(dir, segmentSize) }
+            }
+
+        /**
+         * 在 IO 线程上提前打开，恢复扫描不会落在第一次写日志的线程上
+         */
+        suspend fun open(dir: File, segmentSize: Int = DEFAULT_SEGMENT_SIZE): MappedJournalLogStore =
+            withContext(Dispatchers.IO) { getInstance(dir, segmentSize) }
+    }
+}
@@ -0,0 +1,44 @@
+package com.wyx.commonlog
+
+import java.util.concurrent.atomic.AtomicLongArray
+
+/**
+ * 分段计数器，作用同 LongAdder（minSdk 23 不可用）
+ *
+ * 不同线程按线程 id 落到不同的分段上累加，各分段间隔一个缓存行，避免多线程写同一个原子变量；
+ * 读取时求和，结果不保证是某一时刻的精确快照
+ */
+internal class StripedCounter(stripes: Int = DEFAULT_STRIPES) {
+
+    private val mask: Int
+    private val cells: AtomicLongArray
+
+    init {
+        require(stripes > 0 && stripes and (stripes - 1) == 0) { "stripes must be a power of two: $stripes" }
+        mask = stripes - 1
+        cells = AtomicLongArray(stripes * PADDING)
+    }
+
+    fun add(delta: Long) {
+        val stripe = (Thread.currentThread().id * GOLDEN_RATIO ushr 32).toInt() and mask
+        cells.addAndGet(stripe * PADDING, delta)
+    }
+
+    fun increment() = add(1)
+
+    fun sum(): Long {
+        var total = 0L
+        for (i in 0 until cells.length() step PADDING) {
+            total += cells.get(i)
+        }
+        return total
+    }
+
+    companion object {
+        private const val DEFAULT_STRIPES = 8
+
+        // 8 个 long 为 64 字节，一个缓存行
+        private const val PADDING = 8
+        private const val GOLDEN_RATIO = -0x61c8864680b583ebL
+    }
+}
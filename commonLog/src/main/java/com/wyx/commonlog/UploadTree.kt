@@ -1,100 +1,391 @@
 package com.wyx.commonlog
 
 import android.content.Context
+import android.os.SystemClock
 import android.util.Log
-import androidx.room.Room
 import androidx.work.Constraints
 import androidx.work.ExistingPeriodicWorkPolicy
+import androidx.work.ExistingWorkPolicy
 import androidx.work.NetworkType
+import androidx.work.OneTimeWorkRequestBuilder
 import androidx.work.PeriodicWorkRequestBuilder
 import androidx.work.WorkManager
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
-import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
-import kotlinx.coroutines.withTimeoutOrNull
+import kotlinx.coroutines.runInterruptible
 import okhttp3.OkHttpClient
 import timber.log.Timber
-import java.text.SimpleDateFormat
-import java.util.Date
-import java.util.Locale
-import java.util.TimeZone
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicReference
 
 class UploadTree(private val context: Context,
-                 private val usePersistence: Boolean,
+                 private val mode: LogMode,
                  private val esUrl: String,
                  private val client: OkHttpClient
 ) : Timber.Tree() {
 
-    private val uploader = LogUploader(client, esUrl)
-    private val dateFormat = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.getDefault())
+    // 内存模式下堆栈只需要在上传前查找，不需要持久化
+    private val stackRegistry = LogStackRegistry(trackPending = mode != LogMode.MEMORY)
 
-    private val logChannel = Channel<LogRecordBean>(Channel.UNLIMITED)
+    private val uploader = LogUploader(client, esUrl, stackResolver = stackRegistry::stackOf)
+
+    private val logBufferLazy = lazy {
+        LogRingBuffer(
+            LogConfig.bufferCapacity,
+            LogConfig.overflowPolicy,
+            LogConfig.dropBelowPriority,
+            LogConfig.blockTimeoutMs
+        )
+    }
+    private val logBuffer by logBufferLazy
+
+    // 飞行记录仪模式下保存最近的低级别日志，覆盖旧日志属于正常行为，不计入丢弃统计
+    private val flightRecorderLazy = lazy {
+        LogRingBuffer(LogConfig.flightRecorderCapacity, OverflowPolicy.DROP_OLDEST, trackMetrics = false)
+    }
+    private val flightRecorder by flightRecorderLazy
+    private val rateLimiter = LogConfig.rateLimitPerSecond.takeIf { it > 0 }?.let {
+        LogRateLimiter(it, maxOf(LogConfig.rateLimitBurst, it))
+    }
     private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
 
-    private val database by lazy {
-        Room.databaseBuilder(context, LogDatabase::class.java, "common_log.db").build()
+    private val batchWriterLazy = lazy {
+        LogBatchWriter(LogStore.create(context), scope, stackRegistry).apply { start() }
     }
+    private val batchWriter by batchWriterLazy
+
+    // 内存模式和混合模式都由内存消费协程直接上传
+    private val inMemory = mode == LogMode.MEMORY || mode == LogMode.HYBRID
+
+    // 持久化存储，混合模式转存和统计积压条数共用
+    private val store by lazy { LogStore.create(context) }
+
+    // 混合模式转存的高水位
+    private val highWaterMark =
+        (LogConfig.bufferCapacity * LogConfig.spillHighWater).toInt().coerceIn(1, LogConfig.bufferCapacity)
+
+    @Volatile
+    private var lastOneTimeWorkMs = -ONE_TIME_WORK_INTERVAL_MS
+
+    // 间隔内被合并的调度，间隔结束时补发一次
+    private val trailingWork = AtomicReference<String?>(null)
+
+    // 内存模式的上传流水线，以及等待重试的记录；崩溃转储时从其他线程读取
+    private val memoryPipeline = LogUploadPipeline(uploader)
+
+    @Volatile
+    private var pendingRetry: List<LogRecordBean> = emptyList()
+
+    // 持久化模式下存储中的积压条数，调度回调不能同步查询存储，使用上次异步查询的结果
+    @Volatile
+    private var storedBacklog = 0L
+    private val backlogRefreshing = AtomicBoolean(false)
+
+    // 内存模式按前后台、网络和充电状态决定上传间隔；持久化模式在条件变好或无线电已唤醒时提前调度上传任务
+    private val scheduler = LogUploadScheduler(
+        context,
+        pendingCount = { if (inMemory) logBuffer.size + pendingRetry.size else storedPendingCount() },
+        onFlushRequested = { if (inMemory) logBuffer.requestFlush() else scheduleOneTimeUpload(FLUSH_WORK_NAME) }
+    )
+
+    // 在 IO 线程上映射好转储文件，之前发生的崩溃不转储
+    @Volatile
+    private var crashDumper: CrashLogDumper? = null
 
     init {
         LogConfig.client = client
         LogConfig.esUrl = esUrl
-        if (usePersistence) {
+        // 混合模式转存的日志同样依赖周期任务兜底上传
+        if (mode != LogMode.MEMORY) {
+            scope.launch { storedBacklog = LogStore.open(context).count() }
+            // WorkManager 周期任务最短 15 分钟，更早的上传由 scheduler 单独调度
             val uploadWork = PeriodicWorkRequestBuilder<LogUploadWorker>(
-                1, TimeUnit.MINUTES
+                PERIODIC_UPLOAD_MINUTES, TimeUnit.MINUTES
             )
-                .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+                .setConstraints(
+                    Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .setRequiresBatteryNotLow(true)
+                        .build()
+                )
                 .build()
 
             WorkManager.getInstance(context).enqueueUniquePeriodicWork(
-                "UploadLogs", ExistingPeriodicWorkPolicy.KEEP, uploadWork
+                "UploadLogs", ExistingPeriodicWorkPolicy.UPDATE, uploadWork
             )
-        } else {
+        }
+        if (inMemory) {
             startMemoryConsumer()
         }
+        if (mode == LogMode.HYBRID) {
+            // 上次运行转存但尚未上传的日志，启动时就调度上传，不必等周期任务
+            scope.launch {
+                try {
+                    if (store.count() > 0) scheduleOneTimeUpload(SPILL_WORK_NAME)
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                }
+            }
+        }
+        scheduler.start()
+        if (LogConfig.crashDumpEnabled) {
+            scope.launch { openCrashDumper() }
+        }
     }
 
+    private fun openCrashDumper() {
+        val dumper = CrashLogDumper.getInstance(context.filesDir)
+        crashDumper = dumper
+        // 持久化模式下周期任务会处理转储文件，内存模式需要单独调度一次
+        if (inMemory && !dumper.isEmpty) {
+            enqueueOneTimeUpload(CRASH_WORK_NAME)
+        }
+    }
+
+    private fun enqueueOneTimeUpload(name: String) {
+        val work = OneTimeWorkRequestBuilder<LogUploadWorker>()
+            .setConstraints(Constraints.Builder().setRequiredNetworkType(NetworkType.CONNECTED).build())
+            .build()
+        WorkManager.getInstance(context).enqueueUniqueWork(name, ExistingWorkPolicy.KEEP, work)
+        // 调度的任务同样算一次上传，避免积压很少时每次无线电唤醒都调度
+        scheduler.onFlushed()
+    }
+
+    /**
+     * 持久化模式下等待上传的日志数：上次查询到的存储积压加上批量写入队列中的日志，同时在后台刷新积压条数
+     */
+    private fun storedPendingCount(): Int {
+        if (backlogRefreshing.compareAndSet(false, true)) {
+            scope.launch {
+                try {
+                    storedBacklog = store.count()
+                } catch (e: Exception) {
+                    e.printStackTrace()
+                } finally {
+                    backlogRefreshing.set(false)
+                }
+            }
+        }
+        val writing = if (batchWriterLazy.isInitialized()) batchWriter.size else 0
+        return (storedBacklog + writing).coerceAtMost(Int.MAX_VALUE.toLong()).toInt()
+    }
+
+    /**
+     * 在未捕获异常的线程上同步转储崩溃本身和尚未上传的日志。崩溃堆栈最先写入，预算不足时也能保留；
+     * 其余按时间顺序：已发出未确认的批次、等待重试的记录、各缓冲区中的日志。上传后按 @timestamp 排序
+     */
+    fun dumpOnCrash(thread: Thread, e: Throwable): Int {
+        val dumper = crashDumper ?: return 0
+        return dumper.dump(LogConfig.crashDumpTimeoutMs) { dump ->
+            dump.write(
+                LogRecordBean(
+                    timeMillis = System.currentTimeMillis(),
+                    level = "ERROR",
+                    tag = CRASH_TAG,
+                    message = "Uncaught exception in thread ${thread.name}\n" + LogStackRegistry.stackTraceString(e)
+                )
+            )
+            val write = { record: LogRecordBean -> dump.write(withStack(record)) }
+            val writeEvent = { event: LogEvent -> write(event.toRecord()) }
+            run {
+                memoryPipeline.unacked().forEach { batch -> batch.forEach { if (!write(it)) return@run } }
+                pendingRetry.forEach { if (!write(it)) return@run }
+                if (flightRecorderLazy.isInitialized()) flightRecorder.snapshot(dump.remainingMs, writeEvent)
+                if (batchWriterLazy.isInitialized()) batchWriter.snapshot(dump.remainingMs, writeEvent)
+                if (logBufferLazy.isInitialized()) logBuffer.snapshot(dump.remainingMs, writeEvent)
+            }
+        }
+    }
+
+    /**
+     * 内存中等待上传或写入存储的日志数：各环形缓冲区、等待重试的记录和批量写入队列
+     */
+    fun bufferDepth(): Int {
+        var depth = pendingRetry.size
+        if (logBufferLazy.isInitialized()) depth += logBuffer.size
+        if (flightRecorderLazy.isInitialized()) depth += flightRecorder.size
+        if (batchWriterLazy.isInitialized()) depth += batchWriter.size
+        return depth
+    }
+
+    /**
+     * 持久化存储中等待上传的日志数，内存模式不读取存储
+     */
+    suspend fun backlogRows(): Long = if (mode == LogMode.MEMORY) 0 else store.count()
+
+    // 下次启动时堆栈登记已不存在，转储时把堆栈文本拼回消息中
+    private fun withStack(record: LogRecordBean): LogRecordBean {
+        val fingerprint = record.stackFingerprint ?: return record
+        val stack = stackRegistry.stackOf(fingerprint) ?: return record
+        return record.copy(message = record.message + "\n" + stack, stackFingerprint = null)
+    }
+
+    override fun isLoggable(tag: String?, priority: Int) = priority >= LogConfig.uploadMinPriority
+
     override fun log(priority: Int, tag: String?, message: String, t: Throwable?) {
-        val logEvent = LogRecordBean(
-            timestamp = dateFormat.format(Date()),
-            level = getPriorityString(priority),
-            tag = tag ?: "App",
-            message = if (t != null) "$message\n${Log.getStackTraceString(t)}" else message
-        )
+        // 这里只记录时间戳和引用，生成 LogRecordBean、格式化时间都在消费线程上完成
+        record(priority, tag, message, null, t)
+    }
+
+    /**
+     * 记录带结构化字段的日志，[fields] 为 [LogFields] 编码后的字节
+     */
+    fun logEvent(priority: Int, tag: String?, message: String, fields: ByteArray?) {
+        if (priority < LogConfig.uploadMinPriority) return
+        record(priority, tag, message, fields, null)
+    }
 
-        if (usePersistence) {
+    private fun record(priority: Int, tag: String?, message: String, fields: ByteArray?, t: Throwable?) {
+        if (rateLimiter != null && !rateLimiter.tryAcquire(tag, priority)) {
+            LogMetrics.onRateLimited()
+            return
+        }
+        // Timber 已经把 t 的堆栈拼接到 message 中，保留异常首行、去掉堆栈帧，堆栈文本按指纹去重保存
+        var text = message
+        var stackFingerprint = 0L
+        if (t != null) {
+            text = LogStackRegistry.stripStackTrace(message, t)
+            stackFingerprint = stackRegistry.register(t)
+        }
+        val timeMillis = System.currentTimeMillis()
+        when (mode) {
+            LogMode.MEMORY -> logBuffer.offer(timeMillis, priority, tag, text, fields, stackFingerprint)
+            LogMode.PERSISTENCE -> batchWriter.write(timeMillis, priority, tag, text, fields, stackFingerprint)
+            LogMode.FLIGHT_RECORDER -> recordFlight(timeMillis, priority, tag, text, fields, stackFingerprint)
+            LogMode.HYBRID -> recordHybrid(timeMillis, priority, tag, text, fields, stackFingerprint)
+        }
+    }
+
+    private fun recordHybrid(timeMillis: Long, priority: Int, tag: String?, message: String,
+                             fields: ByteArray?, stackFingerprint: Long) {
+        if (logBuffer.offerIfBelow(highWaterMark, timeMillis, priority, tag, message, fields, stackFingerprint)) {
+            return
+        }
+        // 超过高水位说明上传跟不上，新日志直接转存，不丢弃
+        batchWriter.write(timeMillis, priority, tag, message, fields, stackFingerprint)
+        LogMetrics.onSpilled(1)
+        scheduleOneTimeUpload(SPILL_WORK_NAME)
+    }
+
+    /**
+     * 把日志转存到持久化存储，同时保存它们引用的堆栈
+     */
+    private suspend fun spill(logs: List<LogRecordBean>) {
+        if (logs.isEmpty()) return
+        try {
+            stackRegistry.drainPending(System.currentTimeMillis(), logs)
+                .takeIf { it.isNotEmpty() }
+                ?.let { store.recordStacks(it) }
+            store.append(logs.map { it.copy(id = 0) })
+            LogMetrics.onSpilled(logs.size)
+            scheduleOneTimeUpload(SPILL_WORK_NAME)
+        } catch (e: Exception) {
+            e.printStackTrace()
+            LogMetrics.onDropped(logs)
+        }
+    }
+
+    // 转存、提前上传都会频繁触发，不必每次都调用 WorkManager；间隔内的调用合并到间隔结束时调度一次，不会丢弃
+    private fun scheduleOneTimeUpload(name: String) {
+        val wait = lastOneTimeWorkMs + ONE_TIME_WORK_INTERVAL_MS - SystemClock.elapsedRealtime()
+        if (wait <= 0) {
+            lastOneTimeWorkMs = SystemClock.elapsedRealtime()
+            enqueueOneTimeUpload(name)
+            return
+        }
+        if (trailingWork.compareAndSet(null, name)) {
             scope.launch {
-                database.logDao().insert(logEvent)
+                delay(wait)
+                lastOneTimeWorkMs = SystemClock.elapsedRealtime()
+                trailingWork.getAndSet(null)?.let { enqueueOneTimeUpload(it) }
             }
-        } else {
-            logChannel.trySend(logEvent)
         }
     }
 
+    private fun recordFlight(timeMillis: Long, priority: Int, tag: String?, message: String,
+                             fields: ByteArray?, stackFingerprint: Long) {
+        if (priority < Log.WARN) {
+            flightRecorder.offer(timeMillis, priority, tag, message, fields, stackFingerprint)
+            return
+        }
+        if (priority >= Log.ERROR) {
+            // 先写入错误发生前的上下文，保持时间顺序
+            batchWriter.writeFrom(flightRecorder)
+        }
+        batchWriter.write(timeMillis, priority, tag, message, fields, stackFingerprint)
+    }
+
     private fun startMemoryConsumer() = scope.launch {
-        val buffer = mutableListOf<LogRecordBean>()
+        val drained = ArrayList<LogRecordBean>()
+        val collapser = LogConfig.collapseWindowMs.takeIf { it > 0 }?.let { LogCollapser(it) }
+        // 混合模式下没有网络或上传失败后的退避期间，取出的日志直接转存
+        var spillUntil = 0L
+        var backoff = LogConfig.spillBackoffMs
         while (isActive) {
-            withTimeoutOrNull(5000) {
-                for (log in logChannel) {
-                    buffer.add(log)
-                    if (buffer.size >= 10) break
+            memoryPipeline.run(
+                next = { limit, idle ->
+                    // 先带上等待重试的记录，再从缓冲区补足
+                    val batch = ArrayList<LogRecordBean>(limit)
+                    batch.addAll(pendingRetry)
+                    pendingRetry = emptyList()
+                    runInterruptible {
+                        // 有请求未确认时只短暂等待，取不到就结束本轮，先处理已返回的结果
+                        val linger = scheduler.flushIntervalMs()
+                        logBuffer.drainTo(drained, maxOf(1, limit - batch.size),
+                            if (idle) linger else minOf(linger, IN_FLIGHT_LINGER_MS))
+                    }
+                    if (collapser != null) {
+                        collapser.collapse(drained, batch)
+                        collapser.flushExpired(System.currentTimeMillis(), batch)
+                    } else {
+                        batch.addAll(drained)
+                    }
+                    drained.clear()
+                    if (batch.isNotEmpty()) scheduler.onFlushed()
+                    if (mode == LogMode.HYBRID && (!scheduler.isConnected || SystemClock.elapsedRealtime() < spillUntil)) {
+                        spill(batch)
+                        emptyList()
+                    } else {
+                        batch
+                    }
+                },
+                onAck = { logs, result ->
+                    if (mode == LogMode.HYBRID) {
+                        if (result.isSuccessful) {
+                            spill(result.retry)
+                            backoff = LogConfig.spillBackoffMs
+                        } else {
+                            spill(logs)
+                            spillUntil = SystemClock.elapsedRealtime() + backoff
+                            backoff = minOf(backoff * 2, LogConfig.spillMaxBackoffMs)
+                        }
+                    } else if (result.retry.isNotEmpty()) {
+                        // 只保留被服务端拒绝的记录等待下次重试，超过上限时丢弃最早的并计入丢弃统计，避免网络不可用时无限堆积
+                        val retry = pendingRetry + result.retry
+                        if (retry.size > MAX_RETRY_RECORDS) {
+                            LogMetrics.onDropped(retry.subList(0, retry.size - MAX_RETRY_RECORDS))
+                        }
+                        pendingRetry = retry.takeLast(MAX_RETRY_RECORDS)
+                    }
+                    true
                 }
-            }
-            if (buffer.isNotEmpty()) {
-                uploader.upload(ArrayList(buffer))
-                buffer.clear()
-            }
+            )
         }
     }
 
-    private fun getPriorityString(priority: Int) = when (priority) {
-        Log.ERROR -> "ERROR"
-        Log.WARN -> "WARN"
-        Log.INFO -> "INFO"
-        Log.DEBUG -> "DEBUG"
-        else -> "VERBOSE"
+    companion object {
+        private const val MAX_RETRY_RECORDS = 100
+        private const val IN_FLIGHT_LINGER_MS = 500L
+        private const val CRASH_TAG = "Crash"
+        private const val CRASH_WORK_NAME = "UploadCrashLogs"
+        private const val SPILL_WORK_NAME = "UploadSpilledLogs"
+        private const val FLUSH_WORK_NAME = "UploadLogsNow"
+        private const val ONE_TIME_WORK_INTERVAL_MS = 10_000L
+        private const val PERIODIC_UPLOAD_MINUTES = 15L
     }
 }
\ No newline at end of file
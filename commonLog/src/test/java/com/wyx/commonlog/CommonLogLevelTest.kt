@@ -0,0 +1,49 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * 级别过滤：级别关闭时 lambda 不会被调用，不拼接消息
+ */
+class CommonLogLevelTest {
+
+    private data class User(val id: Long, val name: String, val tags: List<String>)
+
+    private val user = User(42, "benchmark", listOf("a", "b", "c"))
+
+    @After
+    fun tearDown() {
+        CommonLog.setMinLevel(Log.VERBOSE)
+        CommonLog.clearMinLevel("Verbose")
+    }
+
+    @Test
+    fun disabledLevel_lambdaSkipsMessageConstruction() {
+        CommonLog.setMinLevel(Log.WARN)
+        var built = 0
+
+        repeat(1000) {
+            CommonLog.d { built++; "user=$user index=$it" }
+            CommonLog.i("Other") { built++; "user=$user index=$it" }
+            CommonLog.v { built++; "user=$user index=$it" }
+        }
+
+        assertEquals(0, built)
+    }
+
+    @Test
+    fun tagLevel_overridesGlobalLevel() {
+        CommonLog.setMinLevel(Log.WARN)
+        CommonLog.setMinLevel("Verbose", Log.VERBOSE)
+
+        assertTrue(CommonLog.isLoggable(Log.DEBUG, "Verbose"))
+        assertFalse(CommonLog.isLoggable(Log.DEBUG, "Other"))
+        assertFalse(CommonLog.isLoggable(Log.DEBUG, null))
+        assertTrue(CommonLog.isLoggable(Log.ERROR, null))
+    }
+}
@@ -0,0 +1,74 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+
+class CrashLogDumperTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun file() = File(folder.root, "crash.bin")
+
+    private fun filledBuffer(count: Int) = LogRingBuffer(count, OverflowPolicy.DROP_OLDEST, trackMetrics = false).apply {
+        repeat(count) { offer(1_704_067_200_000L + it, 4, "Test", "pending message $it with some context") }
+    }
+
+    @Test
+    fun dump_writesPendingLogsWithoutDrainingBuffer() {
+        val buffer = filledBuffer(2000)
+        val dumper = CrashLogDumper(file(), 1024 * 1024)
+
+        // 预算放宽，避免 CI 机器较慢时因超时提前结束
+        val written = dumper.dump(10_000) { dump ->
+            buffer.snapshot(dump.remainingMs) { dump.write(it.toRecord()) }
+        }
+
+        assertEquals(2000, written)
+        // 转储不取出缓冲区中的日志
+        assertEquals(2000, buffer.size)
+    }
+
+    @Test
+    fun dump_stopsWhenFileIsFullAndStaysReadable() {
+        val buffer = filledBuffer(2000)
+        val dumper = CrashLogDumper(file(), 4096)
+
+        val written = dumper.dump(200) { dump ->
+            buffer.snapshot(dump.remainingMs) { dump.write(it.toRecord()) }
+        }
+
+        assertTrue(written in 1 until 2000)
+        assertEquals((0 until written).map { "pending message $it with some context" },
+            CrashLogDumper(file(), 4096).readAll().map { it.message })
+    }
+
+    @Test
+    fun dump_respectsExpiredBudget() {
+        val dumper = CrashLogDumper(file(), 4096)
+        val written = dumper.dump(0) { dump ->
+            dump.write(LogRecordBean(timeMillis = 0, level = "ERROR", tag = "Crash", message = "late"))
+        }
+        assertEquals(0, written)
+        assertTrue(dumper.isEmpty)
+    }
+
+    @Test
+    fun reopen_appendsAfterPreviousDumpUntilCleared() {
+        val record = LogRecordBean(timeMillis = 0, level = "ERROR", tag = "Crash", message = "first")
+        CrashLogDumper(file(), 4096).dump(200) { it.write(record) }
+
+        val reopened = CrashLogDumper(file(), 4096)
+        reopened.dump(200) { it.write(record.copy(message = "second")) }
+        val logs = reopened.readAll()
+        assertEquals(listOf("first", "second"), logs.map { it.message })
+
+        reopened.clearThrough(logs.last().id)
+        assertTrue(reopened.isEmpty)
+        assertTrue(CrashLogDumper(file(), 4096).readAll().isEmpty())
+    }
+}
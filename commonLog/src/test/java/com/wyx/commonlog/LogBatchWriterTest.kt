@@ -0,0 +1,65 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class LogBatchWriterTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+        LogConfig.collapseWindowMs = 0
+    }
+
+    private fun writeRepeated(writer: LogBatchWriter, times: Int) {
+        val now = System.currentTimeMillis()
+        repeat(times) { writer.write(now, Log.WARN, "Test", "same") }
+    }
+
+    @Test
+    fun close_flushesPendingSummary() = runBlocking {
+        LogConfig.collapseWindowMs = 60_000
+        val store = MappedJournalLogStore(folder.root, 4096)
+        val writer = LogBatchWriter(store, scope, maxBatchSize = 10, maxDelayMs = 10)
+        val job = writer.start()
+
+        writeRepeated(writer, 3)
+        writer.close()
+        job.join()
+
+        assertEquals(listOf(1, 2), store.readOldest(10).map { it.repeatCount })
+    }
+
+    @Test
+    fun expiredSummary_isWrittenWithoutNewInput() = runBlocking {
+        LogConfig.collapseWindowMs = 100
+        val store = MappedJournalLogStore(folder.root, 4096)
+        val writer = LogBatchWriter(store, scope, maxBatchSize = 10, maxDelayMs = 10)
+        writer.start()
+
+        writeRepeated(writer, 3)
+        // 窗口结束后不再写入新日志，汇总记录也应写入存储
+        withTimeout(5_000) {
+            while (store.count() < 2) delay(20)
+        }
+
+        assertEquals(listOf(1, 2), store.readOldest(10).map { it.repeatCount })
+        writer.close()
+    }
+}
@@ -0,0 +1,47 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class LogCollapserTest {
+
+    private fun record(message: String, timeMillis: Long) =
+        LogRecordBean(timeMillis = timeMillis, level = "WARN", tag = "Test", message = message)
+
+    @Test
+    fun collapse_countsRepeatsWithinWindow() {
+        val collapser = LogCollapser(windowMs = 1000)
+        val out = mutableListOf<LogRecordBean>()
+        collapser.collapse((0 until 100).map { record("same", it.toLong()) }, out)
+        collapser.collapse(listOf(record("other", 200)), out)
+
+        assertEquals(listOf("same", "other"), out.map { it.message })
+
+        collapser.flushExpired(1200, out)
+        assertEquals(3, out.size)
+        assertEquals("same", out[2].message)
+        assertEquals(99, out[2].repeatCount)
+    }
+
+    @Test
+    fun collapse_startsNewWindowAfterExpiry() {
+        val collapser = LogCollapser(windowMs = 100)
+        val out = mutableListOf<LogRecordBean>()
+        collapser.collapse(listOf(record("same", 0), record("same", 50), record("same", 60), record("same", 150)), out)
+
+        assertEquals(listOf(1, 2, 1), out.map { it.repeatCount })
+    }
+
+    @Test
+    fun nextFlushDelayMs_onlyCountsWindowsWithRepeats() {
+        val collapser = LogCollapser(windowMs = 1000)
+        val out = mutableListOf<LogRecordBean>()
+        collapser.collapse(listOf(record("once", 0)), out)
+        assertNull(collapser.nextFlushDelayMs(100))
+
+        collapser.collapse(listOf(record("same", 200), record("same", 300)), out)
+        assertEquals(900L, collapser.nextFlushDelayMs(300))
+        assertEquals(0L, collapser.nextFlushDelayMs(1500))
+    }
+}
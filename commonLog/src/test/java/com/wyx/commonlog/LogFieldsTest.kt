@@ -0,0 +1,54 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LogFieldsTest {
+
+    @Test
+    fun toJson_roundTripsAllTypes() {
+        val encoded = LogFields().apply {
+            put("count", 42)
+            put("offset", -1_000_000_000_000L)
+            put("ratio", 0.5)
+            put("ok", true)
+            put("retry", false)
+            put("user", "张三")
+            put("extra", null)
+        }.toByteArray()
+
+        assertEquals(
+            "{\"count\":42,\"offset\":-1000000000000,\"ratio\":0.5,\"ok\":true,\"retry\":false,\"user\":\"张三\",\"extra\":null}",
+            LogFields.toJson(encoded)
+        )
+    }
+
+    @Test
+    fun toJson_skipsNonFiniteDoubles() {
+        val encoded = LogFields().apply {
+            put("nan", Double.NaN)
+            put("ratio", 0.5)
+            put("inf", Double.POSITIVE_INFINITY)
+            put("negInf", Double.NEGATIVE_INFINITY)
+        }.toByteArray()
+
+        assertEquals("{\"ratio\":0.5}", LogFields.toJson(encoded))
+    }
+
+    @Test
+    fun encoded_isSmallerThanTextAndJson() {
+        val encoded = LogFields().apply {
+            put("orderId", 1_234_567_890L)
+            put("costMs", 87)
+            put("retry", 0)
+            put("success", true)
+            put("channel", "wechat")
+        }.toByteArray()
+        val text = "orderId=1234567890, costMs=87, retry=0, success=true, channel=wechat"
+        val json = LogFields.toJson(encoded)
+
+        assertTrue(encoded.size < text.length)
+        assertTrue(encoded.size < json.length)
+    }
+}
@@ -0,0 +1,39 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import kotlin.concurrent.thread
+
+class LogMetricsTest {
+
+    @Test
+    fun stripedCounter_sumsAcrossThreads() {
+        val counter = StripedCounter()
+        val threads = (1..8).map { thread { repeat(100_000) { counter.increment() } } }
+        threads.forEach { it.join() }
+
+        assertEquals(800_000, counter.sum())
+    }
+
+    @Test
+    fun histogram_bucketsByUpperBound() {
+        val histogram = LogHistogram(longArrayOf(10, 100))
+        listOf(1L, 10L, 11L, 100L, 101L, 5000L).forEach { histogram.record(it) }
+
+        assertEquals(mapOf("le_10" to 2L, "le_100" to 2L, "gt_100" to 2L), histogram.snapshot())
+    }
+
+    @Test
+    fun snapshot_countsDropsPerLevel() {
+        val before = LogMetrics.snapshot()
+        val buffer = LogRingBuffer(1, OverflowPolicy.DROP_NEWEST)
+        buffer.offer(0, Log.INFO, "Test", "kept")
+        buffer.offer(0, Log.ERROR, "Test", "dropped")
+
+        val after = LogMetrics.snapshot(bufferDepth = buffer.size).toMap()
+        assertEquals(before.enqueuedByLevel["INFO"]!! + 1, after["enqueued_INFO"])
+        assertEquals(before.droppedByLevel["ERROR"]!! + 1, after["dropped_ERROR"])
+        assertEquals(1, after["buffer_depth"])
+    }
+}
@@ -0,0 +1,22 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class LogQueryTest {
+
+    @Test
+    fun levels_includeMinPriorityAndAbove() {
+        assertEquals(listOf("WARN", "ERROR"), LogQuery(minPriority = Log.WARN).levels())
+        assertEquals(5, LogQuery().levels().size)
+    }
+
+    @Test
+    fun matchExpression_quotesEachWordAsPrefix() {
+        assertEquals("\"timeout*\" \"order*\"", LogQuery(term = "  timeout \"order\" ").matchExpression())
+        assertNull(LogQuery(term = " \" ").matchExpression())
+        assertNull(LogQuery().matchExpression())
+    }
+}
@@ -0,0 +1,21 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LogRateLimiterTest {
+
+    @Test
+    fun tryAcquire_allowsBurstThenThrottles() {
+        val limiter = LogRateLimiter(permitsPerSecond = 10, burst = 5)
+        val now = 1_000_000_000L
+        repeat(5) { assertTrue(limiter.tryAcquire("Flood", 5, now)) }
+        assertFalse(limiter.tryAcquire("Flood", 5, now))
+        assertTrue(limiter.tryAcquire("Other", 5, now))
+
+        // 100ms 后恢复一个令牌
+        assertTrue(limiter.tryAcquire("Flood", 5, now + 100_000_000L))
+        assertFalse(limiter.tryAcquire("Flood", 5, now + 100_000_000L))
+    }
+}
@@ -0,0 +1,118 @@
+package com.wyx.commonlog
+
+import android.util.Log
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+class LogRingBufferTest {
+
+    private fun LogRingBuffer.offer(message: String, priority: Int) =
+        offer(System.currentTimeMillis(), priority, "Test", message)
+
+    private fun LogRingBuffer.drainAll(): List<String> {
+        val out = mutableListOf<LogRecordBean>()
+        drainTo(out, Int.MAX_VALUE, 0)
+        return out.map { it.message }
+    }
+
+    @Test
+    fun dropOldest_keepsNewestRecords() {
+        val buffer = LogRingBuffer(3, OverflowPolicy.DROP_OLDEST)
+        val dropped = LogMetrics.droppedCount
+        (1..5).forEach { buffer.offer("$it", Log.DEBUG) }
+
+        assertEquals(listOf("3", "4", "5"), buffer.drainAll())
+        assertEquals(2, LogMetrics.droppedCount - dropped)
+    }
+
+    @Test
+    fun dropNewest_rejectsWhenFull() {
+        val buffer = LogRingBuffer(2, OverflowPolicy.DROP_NEWEST)
+        assertTrue(buffer.offer("1", Log.DEBUG))
+        assertTrue(buffer.offer("2", Log.DEBUG))
+        assertFalse(buffer.offer("3", Log.DEBUG))
+
+        assertEquals(listOf("1", "2"), buffer.drainAll())
+    }
+
+    @Test
+    fun dropBelowLevel_evictsLowPriorityFirst() {
+        val buffer = LogRingBuffer(3, OverflowPolicy.DROP_BELOW_LEVEL, Log.WARN)
+        buffer.offer("e1", Log.ERROR)
+        buffer.offer("d1", Log.DEBUG)
+        buffer.offer("e2", Log.ERROR)
+
+        assertFalse(buffer.offer("d2", Log.DEBUG))
+        assertTrue(buffer.offer("w1", Log.WARN))
+
+        assertEquals(listOf("e1", "e2", "w1"), buffer.drainAll())
+    }
+
+    @Test
+    fun offerIfBelow_rejectsAboveHighWaterWithoutCountingDrop() {
+        val buffer = LogRingBuffer(4, OverflowPolicy.DROP_OLDEST)
+        val dropped = LogMetrics.droppedCount
+        assertTrue(buffer.offerIfBelow(2, 0L, Log.DEBUG, null, "1"))
+        assertTrue(buffer.offerIfBelow(2, 0L, Log.DEBUG, null, "2"))
+        assertFalse(buffer.offerIfBelow(2, 0L, Log.DEBUG, null, "3"))
+        assertEquals(listOf("1", "2"), buffer.drainAll())
+        assertEquals(dropped, LogMetrics.droppedCount)
+    }
+
+    @Test
+    fun block_dropsAfterTimeout() {
+        val buffer = LogRingBuffer(1, OverflowPolicy.BLOCK, blockTimeoutMs = 20)
+        buffer.offer("1", Log.DEBUG)
+
+        val start = System.nanoTime()
+        assertFalse(buffer.offer("2", Log.DEBUG))
+        assertTrue(System.nanoTime() - start >= 20_000_000)
+    }
+
+    @Test
+    fun block_resumesWhenConsumerDrains() {
+        val buffer = LogRingBuffer(1, OverflowPolicy.BLOCK, blockTimeoutMs = 5_000)
+        buffer.offer("1", Log.DEBUG)
+
+        val consumer = Thread {
+            Thread.sleep(50)
+            buffer.drainTo(mutableListOf(), 1, 0)
+        }
+        consumer.start()
+        assertTrue(buffer.offer("2", Log.DEBUG))
+        consumer.join()
+
+        assertEquals(listOf("2"), buffer.drainAll())
+    }
+
+    @Test
+    fun drainTo_returnsEarlyWhenBatchIsFull() {
+        val buffer = LogRingBuffer(10)
+        (1..3).forEach { buffer.offer("$it", Log.DEBUG) }
+
+        val out = mutableListOf<LogRecordBean>()
+        val start = System.nanoTime()
+        assertEquals(3, buffer.drainTo(out, 3, 5_000))
+        assertTrue(System.nanoTime() - start < 1_000_000_000)
+    }
+
+    @Test
+    fun offer_doesNotAllocateOnHotPath() {
+        val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+        val buffer = LogRingBuffer(1024, OverflowPolicy.DROP_OLDEST)
+        val message = "steady state message"
+        // 预热，让缓冲区进入满载覆盖状态并完成 JIT
+        repeat(100_000) { buffer.offer(it.toLong(), Log.DEBUG, "Test", message) }
+
+        val threadId = Thread.currentThread().id
+        val before = threadBean.getThreadAllocatedBytes(threadId)
+        repeat(100_000) { buffer.offer(it.toLong(), Log.DEBUG, "Test", message) }
+        val allocated = threadBean.getThreadAllocatedBytes(threadId) - before
+
+        // 10 万次写入允许少量与测量本身相关的分配，平均每次远小于 1 字节
+        assertTrue("allocated $allocated bytes", allocated < 16 * 1024)
+    }
+}
@@ -0,0 +1,80 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LogStackRegistryTest {
+
+    private fun failWith(message: String): Throwable =
+        try {
+            throw IllegalStateException(message)
+        } catch (e: IllegalStateException) {
+            e
+        }
+
+    private fun failElsewhere(): Throwable = IllegalArgumentException("other")
+
+    @Test
+    fun fingerprint_ignoresMessageButNotThrowingSite() {
+        val first = LogStackRegistry.fingerprint(failWith("order 1"))
+        val second = LogStackRegistry.fingerprint(failWith("order 2"))
+
+        assertEquals(first, second)
+        assertNotEquals(first, LogStackRegistry.fingerprint(failElsewhere()))
+        assertNotEquals(first, LogStackRegistry.fingerprint(RuntimeException("wrapped", failWith("order 1"))))
+    }
+
+    @Test
+    fun register_storesStackOnceAndCountsOccurrences() {
+        val registry = LogStackRegistry()
+        val throwables = (1..1001).map { failWith("attempt $it") }
+        val fingerprint = throwables.take(1000).map { registry.register(it) }.distinct().single()
+
+        val pending = registry.drainPending(now = 1L).single()
+        assertEquals(fingerprint, pending.fingerprint)
+        assertEquals(1000L, pending.occurrences)
+        assertTrue(pending.stack.startsWith("java.lang.IllegalStateException: attempt 1"))
+
+        registry.register(throwables.last())
+        val next = registry.drainPending(now = 2L).single()
+        assertEquals(1L, next.occurrences)
+        assertEquals("", next.stack)
+    }
+
+    @Test
+    fun pendingStacks_areCappedAndRestoredFromCacheForReferencedLogs() {
+        val registry = LogStackRegistry(capacity = 2)
+        val throwables = listOf(failWith("a"), failElsewhere(), RuntimeException("c"))
+        val fingerprints = throwables.map { registry.register(it) }
+
+        // 第三个堆栈超出上限未进入待持久化，写入引用它的日志时从缓存补齐
+        val log = LogRecordBean(timeMillis = 0, level = "ERROR", tag = null, message = "c",
+            stackFingerprint = fingerprints[2])
+        val stacks = registry.drainPending(now = 1L, logs = listOf(log)).associateBy { it.fingerprint }
+        assertEquals(3, stacks.size)
+        assertTrue(stacks.getValue(fingerprints[2]).stack.startsWith("java.lang.RuntimeException: c"))
+    }
+
+    @Test
+    fun stripStackTrace_removesTimberSuffix() {
+        val t = failWith("boom")
+        val stack = LogStackRegistry.stackTraceString(t)
+
+        assertEquals("upload failed\n$t", LogStackRegistry.stripStackTrace("upload failed\n$stack", t))
+        assertEquals(t.toString(), LogStackRegistry.stripStackTrace(stack, t))
+    }
+
+    @Test
+    fun stripStackTrace_keepsPerOccurrenceMessageForSameStack() {
+        val first = failWith("order 1")
+        val second = failWith("order 2")
+        assertEquals(LogStackRegistry.fingerprint(first), LogStackRegistry.fingerprint(second))
+
+        val firstText = LogStackRegistry.stripStackTrace("submit\n${LogStackRegistry.stackTraceString(first)}", first)
+        val secondText = LogStackRegistry.stripStackTrace("submit\n${LogStackRegistry.stackTraceString(second)}", second)
+        assertEquals("submit\njava.lang.IllegalStateException: order 1", firstText)
+        assertEquals("submit\njava.lang.IllegalStateException: order 2", secondText)
+    }
+}
@@ -0,0 +1,31 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+
+class LogTimestampFormatterTest {
+
+    private val reference = SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US).apply {
+        timeZone = TimeZone.getTimeZone("UTC")
+    }
+
+    @Test
+    fun format_matchesSimpleDateFormatInUtc() {
+        val samples = listOf(0L, 951_782_400_000L, 1_709_208_000_123L, 4_102_444_799_999L, -1L)
+        samples.forEach { millis ->
+            assertEquals(reference.format(millis), LogTimestampFormatter.format(millis))
+        }
+    }
+
+    @Test
+    fun format_acrossDayBoundaries() {
+        var millis = 1_700_000_000_000L
+        repeat(1000) {
+            assertEquals(reference.format(millis), LogTimestampFormatter.format(millis))
+            millis += 7_777_777L
+        }
+    }
+}
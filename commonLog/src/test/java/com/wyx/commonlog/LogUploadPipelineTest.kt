@@ -0,0 +1,142 @@
+package com.wyx.commonlog
+
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import okhttp3.OkHttpClient
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Before
+import org.junit.Test
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
+
+class LogUploadPipelineTest {
+
+    private val server = MockWebServer()
+    private val requests = AtomicInteger()
+    private val active = AtomicInteger()
+    private val maxActive = AtomicInteger()
+    private lateinit var uploader: LogUploader
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                // 请求越早到达响应越慢，用来验证确认顺序与完成顺序无关；处理期间计入同时进行的请求数
+                val delay = maxOf(20L, 200L - requests.getAndIncrement() * 20L)
+                val current = active.incrementAndGet()
+                maxActive.accumulateAndGet(current) { a, b -> maxOf(a, b) }
+                try {
+                    Thread.sleep(delay)
+                } finally {
+                    active.decrementAndGet()
+                }
+                return MockResponse().setBody("{\"errors\":false,\"items\":[]}")
+            }
+        }
+        server.start()
+        uploader = LogUploader(OkHttpClient(), server.url("/logs").toString(), LogCompression.NONE)
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    private fun records(from: Int, count: Int) = (from until from + count).map {
+        LogRecordBean(id = it.toLong(), timeMillis = 1_704_067_200_000, level = "INFO", tag = "Test", message = "message $it")
+    }
+
+    private fun drain(maxInFlight: Int, batches: Int): List<Long> = runBlocking {
+        requests.set(0)
+        maxActive.set(0)
+        val sizer = AdaptiveBatchSizer(minSize = 10, maxSize = 10, targetLatencyMs = 10_000, maxBytes = Long.MAX_VALUE)
+        val pipeline = LogUploadPipeline(uploader, maxInFlight, sizer)
+        var next = 1
+        val acked = ArrayList<Long>()
+        pipeline.run(
+            next = { limit, _ ->
+                if (next > batches * limit) emptyList() else records(next, limit).also { next += limit }
+            },
+            onAck = { logs, result ->
+                acked.add(logs.last().id)
+                result.isSuccessful
+            }
+        )
+        acked
+    }
+
+    @Test
+    fun run_acknowledgesInSubmissionOrder() {
+        val acked = drain(maxInFlight = 4, batches = 8)
+        assertEquals((1..8).map { it * 10L }, acked)
+    }
+
+    @Test
+    fun run_keepsAtMostMaxInFlightRequestsOnTheServer() {
+        drain(maxInFlight = 1, batches = 8)
+        assertEquals(1, maxActive.get())
+
+        drain(maxInFlight = 4, batches = 8)
+        assertEquals(4, maxActive.get())
+    }
+
+    /**
+     * 派发的任务先暂存，[release] 时在当前线程执行完，之后的任务交给 IO 线程
+     */
+    private class HeldDispatcher : CoroutineDispatcher() {
+        private val held = ArrayList<Runnable>()
+
+        @Volatile
+        private var holding = true
+
+        override fun dispatch(context: CoroutineContext, block: Runnable) {
+            if (holding) synchronized(held) { held.add(block) } else Dispatchers.IO.dispatch(context, block)
+        }
+
+        fun release() {
+            holding = false
+            synchronized(held) { held.toList().also { held.clear() } }.forEach { it.run() }
+        }
+    }
+
+    @Test
+    fun run_acknowledgesCompletedHeadBeforeTakingNextBatch() = runBlocking {
+        val sizer = AdaptiveBatchSizer(minSize = 10, maxSize = 10, targetLatencyMs = 10_000, maxBytes = Long.MAX_VALUE)
+        val dispatcher = HeldDispatcher()
+        val pipeline = LogUploadPipeline(uploader, maxInFlight = 4, sizer = sizer, dispatcher = dispatcher)
+        val events = ArrayList<String>()
+        var next = 1
+        pipeline.run(
+            next = { limit, idle ->
+                events.add("next idle=$idle")
+                // 取第二批时才让第一批的请求执行完，返回后第一批已完成、第二批刚发出
+                if (next == 11) dispatcher.release()
+                if (next > 3 * limit) emptyList() else records(next, limit).also { next += limit }
+            },
+            onAck = { logs, _ ->
+                events.add("ack ${logs.last().id}")
+                true
+            }
+        )
+
+        assertEquals(listOf("next idle=true", "next idle=false", "ack 10", "next idle=false"), events.take(4))
+    }
+
+    @Test
+    fun sizer_growsAdditivelyAndHalvesOnSlowBatches() {
+        val sizer = AdaptiveBatchSizer(minSize = 50, maxSize = 1000, targetLatencyMs = 3000, maxBytes = 1024 * 1024)
+        repeat(3) { sizer.onSuccess(sizer.batchSize, 1024, 100) }
+        assertEquals(200, sizer.batchSize)
+        sizer.onSuccess(sizer.batchSize, 1024, 5000)
+        assertEquals(100, sizer.batchSize)
+        sizer.onFailure()
+        sizer.onFailure()
+        assertEquals(50, sizer.batchSize)
+    }
+}
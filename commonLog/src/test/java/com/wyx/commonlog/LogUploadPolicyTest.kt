@@ -0,0 +1,69 @@
+package com.wyx.commonlog
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class LogUploadPolicyTest {
+
+    private val policy = LogUploadPolicy(
+        unmeteredIntervalMs = 5_000,
+        foregroundIntervalMs = 30_000,
+        backgroundIntervalMs = 15 * 60_000,
+        coalesceMinIntervalMs = 5_000
+    )
+
+    /**
+     * 模拟一小时，每 2 秒一条日志；[radioActivePeriodSec] 秒一次其他流量唤醒无线电。
+     * 只统计无线电未被唤醒时发起的上传次数
+     */
+    private fun wakeUpsPerHour(conditions: UploadConditions, radioActivePeriodSec: Int = 0): Int {
+        var pending = 0
+        var lastFlushMs = 0L
+        var wakeUps = 0
+        for (second in 1..3600) {
+            if (second % 2 == 0) pending++
+            val nowMs = second * 1000L
+            val radioActive = radioActivePeriodSec > 0 && second % radioActivePeriodSec == 0
+            if (policy.shouldFlush(conditions, pending, 1000, nowMs - lastFlushMs, radioActive)) {
+                if (!radioActive) wakeUps++
+                pending = 0
+                lastFlushMs = nowMs
+            }
+        }
+        return wakeUps
+    }
+
+    @Test
+    fun backgroundMetered_batchesAggressively() {
+        assertEquals(4, wakeUpsPerHour(UploadConditions(false, NetworkKind.METERED, false)))
+    }
+
+    @Test
+    fun foregroundMetered_uploadsEvery30Seconds() {
+        assertEquals(120, wakeUpsPerHour(UploadConditions(true, NetworkKind.METERED, false)))
+    }
+
+    @Test
+    fun unmeteredCharging_flushesEarly() {
+        assertTrue(wakeUpsPerHour(UploadConditions(false, NetworkKind.UNMETERED, true)) >= 700)
+    }
+
+    @Test
+    fun radioActivity_coalescesUploads() {
+        assertEquals(0, wakeUpsPerHour(UploadConditions(false, NetworkKind.METERED, false), radioActivePeriodSec = 60))
+    }
+
+    @Test
+    fun offline_neverUploads() {
+        assertEquals(0, wakeUpsPerHour(UploadConditions(true, NetworkKind.NONE, true), radioActivePeriodSec = 60))
+    }
+
+    @Test
+    fun isImproved_onUnmeteredOrCharging() {
+        val metered = UploadConditions(false, NetworkKind.METERED, false)
+        assertTrue(policy.isImproved(metered, metered.copy(network = NetworkKind.UNMETERED)))
+        assertTrue(policy.isImproved(metered, metered.copy(charging = true)))
+        assertTrue(!policy.isImproved(metered, metered.copy(foreground = true)))
+    }
+}
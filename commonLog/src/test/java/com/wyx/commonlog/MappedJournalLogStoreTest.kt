@@ -0,0 +1,138 @@
+package com.wyx.commonlog
+
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.io.RandomAccessFile
+
+class MappedJournalLogStoreTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private fun record(message: String) =
+        LogRecordBean(timeMillis = 1_704_067_200_000, level = "INFO", tag = "Test", message = message)
+
+    @Test
+    fun appendAndRead_preservesOrderAcrossSegments() = runBlocking {
+        val store = MappedJournalLogStore(folder.root, 256)
+        store.append((1..20).map { record("message $it") })
+
+        val logs = store.readOldest(100)
+        assertEquals((1..20).map { "message $it" }, logs.map { it.message })
+        assertEquals((1L..20L).toList(), logs.map { it.id })
+    }
+
+    @Test
+    fun readAfter_pagesFromCursorIncludingLaterAppends() = runBlocking {
+        val store = MappedJournalLogStore(folder.root, 4096)
+        store.append((1..30).map { record("message $it") })
+
+        val ids = ArrayList<Long>()
+        var lastId = 0L
+        while (true) {
+            val page = store.readAfter(lastId, 7)
+            if (page.isEmpty()) break
+            ids.addAll(page.map { it.id })
+            lastId = page.last().id
+            if (lastId == 14L) store.append(listOf(record("late")))
+        }
+
+        assertEquals((1L..31L).toList(), ids)
+        // 游标之前的位置仍可重新读取
+        assertEquals((4L..6L).toList(), store.readAfter(3, 3).map { it.id })
+    }
+
+    @Test
+    fun deleteThrough_dropsUploadedSegments() = runBlocking {
+        val store = MappedJournalLogStore(folder.root, 256)
+        store.append((1..20).map { record("message $it") })
+        val segmentCount = segments().size
+
+        assertEquals(15, store.deleteThrough(15))
+        assertEquals((16L..20L).toList(), store.readOldest(100).map { it.id })
+        assertTrue(segments().size < segmentCount)
+    }
+
+    @Test
+    fun enforceQuota_evictsOldestSegmentsButKeepsCurrent() = runBlocking {
+        val store = MappedJournalLogStore(folder.root, 256)
+        store.append((1..40).map { record("message $it") })
+        val before = LogMetrics.evictedCount
+
+        val evicted = store.enforceQuota(maxBytes = 512, maxRows = 0)
+        val remaining = store.readOldest(100).map { it.id }
+
+        assertTrue(evicted > 0)
+        assertEquals(before + evicted, LogMetrics.evictedCount)
+        assertEquals(40 - evicted, remaining.size)
+        assertEquals(40L, remaining.last())
+        assertTrue(segments().size <= 2)
+    }
+
+    @Test
+    fun enforceQuota_countsStackFilesTowardBytes() = runBlocking {
+        val store = MappedJournalLogStore(folder.root, 256)
+        store.append((1..6).map { record("message $it") })
+        assertEquals(0, store.enforceQuota(maxBytes = 1024, maxRows = 0))
+
+        store.recordStacks(listOf(LogStackBean(1L, "x".repeat(2048), 1, System.currentTimeMillis())))
+
+        assertTrue(store.enforceQuota(maxBytes = 1024, maxRows = 0) > 0)
+    }
+
+    @Test
+    fun enforceQuota_deletesExpiredStacksNotReferencedByPendingLogs() = runBlocking {
+        val now = System.currentTimeMillis()
+        val store = MappedJournalLogStore(folder.root, 4096)
+        store.recordStacks(listOf(LogStackBean(1L, "referenced", 1, now), LogStackBean(2L, "unreferenced", 1, now),
+            LogStackBean(3L, "recent", 1, now)))
+        store.append(listOf(record("failed").copy(stackFingerprint = 1L)))
+        val expired = now - 8L * 24 * 60 * 60 * 1000
+        File(folder.root, "stacks").listFiles().orEmpty()
+            .filter { it.name != "3" }
+            .forEach { it.setLastModified(expired) }
+
+        store.enforceQuota(maxBytes = 0, maxRows = 0)
+
+        assertEquals(setOf(1L, 3L), store.loadStacks(listOf(1L, 2L, 3L)).keys)
+    }
+
+    @Test
+    fun reopen_recoversAfterTornWrite() = runBlocking {
+        MappedJournalLogStore(folder.root, 4096).apply {
+            append((1..5).map { record("message $it") })
+            deleteThrough(2)
+        }
+        // 模拟崩溃时写了一半的记录：长度字段已写入但内容和校验和不完整
+        val segment = segments().last()
+        RandomAccessFile(segment, "rw").use { raf ->
+            var position = 0L
+            while (true) {
+                raf.seek(position)
+                val length = raf.readInt()
+                if (length == 0) break
+                position += 4 + 8 + length + 4
+            }
+            raf.seek(position)
+            raf.writeInt(100)
+            raf.writeLong(6)
+            raf.writeInt(0x12345678)
+        }
+
+        val reopened = MappedJournalLogStore(folder.root, 4096)
+        assertEquals((3L..5L).toList(), reopened.readOldest(100).map { it.id })
+
+        reopened.append(listOf(record("after crash")))
+        val logs = reopened.readOldest(100)
+        assertEquals(6L, logs.last().id)
+        assertEquals("after crash", logs.last().message)
+    }
+
+    private fun segments(): List<File> =
+        folder.root.listFiles { _, name -> name.endsWith(".seg") }.orEmpty().sortedBy { it.name }
+}